@@ -1,44 +1,36 @@
 package com.blazeloader.jarjar;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Enumeration;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 
+import com.blazeloader.jarjar.io.MappedJarFile;
 import com.blazeloader.util.transformers.ONFTransformer;
 import com.blazeloader.util.transformers.transformations.Transformation;
 
-import sun.misc.IOUtils;
-
 public class AccessTransformer {
 	private final ONFTransformer transformer = new ONFTransformer();
 	
-	public void parse(JarOutputStream jOut, JarFile jar) throws IOException  {
-		Enumeration<JarEntry> entries = jar.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry entry = entries.nextElement();
+	public void parse(JarOutputStream jOut, MappedJarFile jar) throws IOException  {
+		WritableByteChannel channel = Channels.newChannel(jOut);
+		for (MappedJarFile.Entry entry : jar.entries()) {
 			String name = entry.getName();
-			InputStream s = null;
-			try {
-				s = jar.getInputStream(entry);
-				if (name.endsWith(".class")) {
-					String className = name.split("\\.")[0];
-					byte[] data = transformer.transform(className, Transformation.getDotName(className), IOUtils.readFully(s, -1, true));
-					jOut.putNextEntry(new JarEntry(entry.getName()));
-					jOut.write(data);
-					jOut.closeEntry();
-				} else {
-					jOut.putNextEntry(new JarEntry(entry.getName()));
-					int b;
-					while ((b = s.read()) != -1) {
-						jOut.write(b);
-					}
-					jOut.closeEntry();
+			if (name.endsWith(".class")) {
+				String className = name.split("\\.")[0];
+				byte[] data = transformer.transform(className, Transformation.getDotName(className), entry.readBytes());
+				jOut.putNextEntry(new JarEntry(entry.getName()));
+				jOut.write(data);
+				jOut.closeEntry();
+			} else {
+				jOut.putNextEntry(new JarEntry(entry.getName()));
+				ByteBuffer data = entry.read();
+				while (data.hasRemaining()) {
+					channel.write(data);
 				}
-			} finally {
-				if (s != null) s.close();
+				jOut.closeEntry();
 			}
 		}
 	}
@@ -15,12 +15,16 @@ import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.jar.JarFile;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.jar.JarOutputStream;
+import java.util.regex.Pattern;
 
 import com.blazeloader.bl.obf.OBFLevel;
 import com.blazeloader.jarjar.convert.ClassRemapper;
 import com.blazeloader.jarjar.convert.SeargToEnigmaConverter;
+import com.blazeloader.jarjar.io.MappedJarFile;
+import com.blazeloader.jarjar.tree.ClassPath;
 import com.google.common.io.Files;
 
 
@@ -28,6 +32,71 @@ public class Main {
 	public static OBFLevel CURRENT;
 	public static String MAPPING_SOURCE;
 	
+	/**
+	 * Heap budget in bytes for classes parsed on demand when converting mappings. Set with -Djarjar.classCache=<size>[k|m|g]
+	 * When zero (the default) every class is parsed up front and kept.
+	 */
+	public static long CLASS_CACHE = parseSize(System.getProperty("jarjar.classCache"));
+	
+	/**
+	 * Directory parsed jars are cached in so unchanged jars are not parsed again. Set with -Djarjar.cacheDir=<path>
+	 * Defaults to .jarjar/cache in the user's home directory. An empty value disables the cache.
+	 */
+	public static File CACHE_DIR = cacheDirectory(System.getProperty("jarjar.cacheDir"));
+	
+	/**
+	 * Library jars and class directories used to resolve super classes that are not in the jars being remapped.
+	 * Set with -Djarjar.libraries=<path>, entries separated as on the java class path.
+	 */
+	public static List<File> LIBRARIES = parsePath(System.getProperty("jarjar.libraries"));
+	
+	/**
+	 * Number of subtree similarity scores remembered while matching classes. Set with -Djarjar.similarityCache=<count>
+	 * Zero turns the cache off.
+	 */
+	public static int SIMILARITY_CACHE = Integer.getInteger("jarjar.similarityCache", 1 << 18);
+	
+	/**
+	 * How much the opcodes, arity and return types of methods count when matching classes. Set with -Djarjar.methodWeight=<weight>
+	 * 1 counts them as much as each of the other attributes compared. Zero (the default) leaves method bodies unread.
+	 */
+	public static float METHOD_WEIGHT = Float.parseFloat(System.getProperty("jarjar.methodWeight", "0"));
+	
+	/**
+	 * Features compared when matching classes, with their weights. Set with -Djarjar.features=<feature[:weight]>,...
+	 * Empty (the default) compares the standard features, and method bodies if they have a {@link #METHOD_WEIGHT weight}.
+	 */
+	public static String FEATURES = System.getProperty("jarjar.features", "");
+	
+	/**
+	 * Times every feature compared and prints how long each took when set with -Djarjar.featureTimes=true.
+	 */
+	public static boolean FEATURE_TIMES = Boolean.getBoolean("jarjar.featureTimes");
+	
+	/**
+	 * How many bands apart the field, method and interface counts of two classes can be for them to be compared. Set with -Djarjar.candidateRange=<bands>
+	 * Smaller ranges compare fewer pairs and may miss more matches. -1 (the default) compares every pair.
+	 */
+	public static int CANDIDATE_RANGE = Integer.getInteger("jarjar.candidateRange", -1);
+	
+	/**
+	 * How classes are paired up within each group of siblings. Set with -Djarjar.assignment=<greedy|hungarian|auction|optimal>
+	 * greedy (the default) pairs them one at a time as they are compared. optimal solves small groups exactly and large ones by auction.
+	 */
+	public static String ASSIGNMENT = System.getProperty("jarjar.assignment", "greedy");
+	
+	/**
+	 * Matches subtrees on all cores when set with -Djarjar.parallel=true. Gives the same result as matching on one thread.
+	 * Only used with an assignment other than greedy, and ignored with a warning otherwise.
+	 */
+	public static boolean PARALLEL = Boolean.getBoolean("jarjar.parallel");
+	
+	/**
+	 * Stops scoring a candidate class as soon as it cannot beat the best one so far when set with -Djarjar.prune=true.
+	 * Matches the same classes with the same similarities either way. Used by greedy assignment and for classes whose parents were lost.
+	 */
+	public static boolean PRUNE = Boolean.getBoolean("jarjar.prune");
+	
 	public static void main(String[] args) {
 		if (args.length > 0 && args[0].equals("enigma")) {
 			welcome();
@@ -111,14 +180,18 @@ public class Main {
 		}
 		
 		System.out.println("Remapping jar classes. This may take a while.");
-		ClassRemapper remapper = new ClassRemapper(jar1, jar2);
+		ClassRemapper remapper = new ClassRemapper(jar1, jar2, new ClassPath(LIBRARIES));
 		RemapperConsole console;
 		if (args.length == 5) {
 			console = new RemapperConsole(remapper, srg, args[4]);
 		} else {
 			console = new RemapperConsole(remapper, srg);
 		}
-		console.run();
+		try {
+			console.run();
+		} finally {
+			remapper.close();
+		}
 	}
 	
 	private static void convertMappings(String[] args) {
@@ -139,7 +212,12 @@ public class Main {
 			}
 			File out = new File(args[3] + ".enigma");
 			System.out.println("Converting MCP mappings to enigma. Please wait.");
-			(new SeargToEnigmaConverter(args.length > 4, srg, jar)).storeEntries(out);
+			SeargToEnigmaConverter converter = new SeargToEnigmaConverter(args.length > 4, srg, jar);
+			try {
+				converter.storeEntries(out);
+			} finally {
+				converter.close();
+			}
 			System.out.println("Conversion complete.");
 			System.out.print("Result saved to: ");
 			System.out.println(args[3] + ".enigma");
@@ -158,7 +236,7 @@ public class Main {
 				return;
 			}
 			System.out.println("Transforming file. Please wait.");
-			JarFile jar = new JarFile(resolved, false);
+			MappedJarFile jar = new MappedJarFile(resolved);
 			File out = new File(jar.getName() + ".tmp");
 			if (out.exists()) out.delete();
 			out.createNewFile();
@@ -263,6 +341,40 @@ public class Main {
 		   return result;
 	}
 	
+	private static File cacheDirectory(String path) {
+		if (path == null) return new File(System.getProperty("user.home"), ".jarjar" + File.separator + "cache");
+		return path.isEmpty() ? null : new File(path);
+	}
+	
+	/**
+	 * Splits a class path into its entries. Null or empty paths have none.
+	 */
+	public static List<File> parsePath(String path) {
+		List<File> result = new ArrayList<File>();
+		if (path != null) {
+			for (String i : path.split(Pattern.quote(File.pathSeparator))) {
+				if (!i.trim().isEmpty()) result.add(new File(i.trim()));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Parses a size in bytes with an optional k, m, or g suffix. Null or empty values are zero.
+	 */
+	public static long parseSize(String size) {
+		if (size == null || size.trim().isEmpty()) return 0;
+		size = size.trim().toLowerCase();
+		long unit = 1;
+		switch (size.charAt(size.length() - 1)) {
+			case 'g': unit *= 1024;
+			case 'm': unit *= 1024;
+			case 'k': unit *= 1024;
+				size = size.substring(0, size.length() - 1);
+		}
+		return Long.parseLong(size.trim()) * unit;
+	}
+	
 	private static String chunk(String s) {
 		return s.replaceAll("(.{32})", "$1\n").trim();
 	}
@@ -5,6 +5,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import com.blazeloader.jarjar.console.CommandReader;
 import com.blazeloader.jarjar.console.Options;
@@ -12,6 +15,8 @@ import com.blazeloader.jarjar.convert.ClassRemapper;
 import com.blazeloader.jarjar.convert.SeargToEnigmaConverter;
 import com.blazeloader.jarjar.tree.ClassTree;
 import com.blazeloader.jarjar.tree.ClassTreeMatcher;
+import com.blazeloader.jarjar.tree.Tree;
+import com.blazeloader.jarjar.tree.TreeRenderer;
 
 import net.acomputerdog.OBFUtil.map.TargetType;
 import net.acomputerdog.OBFUtil.parse.types.SRGFileParser;
@@ -19,6 +24,11 @@ import net.acomputerdog.OBFUtil.table.DirectOBFTable;
 import net.acomputerdog.OBFUtil.table.OBFTable;
 
 public class RemapperConsole extends CommandReader {
+	/**
+	 * Number of lines on each page of a tree, or classes on each page of a list.
+	 */
+	private static final int PAGE_SIZE = 100;
+	
 	private ClassTreeMatcher matcher;
 	
 	private final ClassRemapper remapper;
@@ -52,13 +62,13 @@ public class RemapperConsole extends CommandReader {
 				ClassTreeMatcher found = matcher.lookup(args[1]);
 				boolean full = args.length > 2 && "full".equalsIgnoreCase(args[2]);
 				if (found != null) {
-					if (full) return found.toString();
+					if (full) return render(ClassTreeMatcher.renderer(out), found, args, 3);
 					return found.bitMask() + " " + found.description();
 				}
 				ClassTree unmapped = matcher.before().lookup(args[1]);
 				if (unmapped != null) {
 					out.print("{null} <- ");
-					if (full) return unmapped.toString();
+					if (full) return render(ClassTree.renderer(out), unmapped, args, 3);
 					return unmapped.description();
 				}
 				return "Entry not found";
@@ -68,13 +78,13 @@ public class RemapperConsole extends CommandReader {
 				ClassTreeMatcher found = matcher.reverseLookup(args[1]);
 				boolean full = args.length > 2 && "full".equalsIgnoreCase(args[2]);
 				if (found != null) {
-					if (full) return found.toString();
+					if (full) return render(ClassTreeMatcher.renderer(out), found, args, 3);
 					return found.bitMask() + " " + found.description();
 				}
 				ClassTree unmapped = matcher.after().lookup(args[1]);
 				if (unmapped != null) {
 					out.print("{null} -> ");
-					if (full) return unmapped.toString();
+					if (full) return render(ClassTree.renderer(out), unmapped, args, 3);
 					return unmapped.description();
 				}
 				return "Entry not found";
@@ -164,9 +174,15 @@ public class RemapperConsole extends CommandReader {
 				if (args.length < 2) return "Error: Too few arguments.";
 				args[1] = fillSystemVariables(args[1]);
 				File output = new File(args[1]);
+				Options ops = readOptions(args, 2);
 				Writer w = new BufferedWriter(new FileWriter(output));
-				w.write(matcher.toString());
-				w.close();
+				try {
+					TreeRenderer<ClassTreeMatcher> renderer = ClassTreeMatcher.renderer(w);
+					if (ops.containsKey("depth")) renderer.maxDepth(ops.getInt("depth"));
+					renderer.render(matcher);
+				} finally {
+					w.close();
+				}
 				return "Tree text saved to " + args[1];
 			}
 			case "save-json": {
@@ -189,31 +205,42 @@ public class RemapperConsole extends CommandReader {
 			}
 			case "list": {
 				if (args.length < 2) return "Error: Too few arguments.";
+				Options ops = readOptions(args, 2);
+				TreeRenderer<ClassTree> renderer = ClassTree.renderer(out);
+				if (ops.containsKey("depth")) renderer.maxDepth(ops.getInt("depth"));
+				int first = ops.containsKey("page") ? ops.getInt("page") * PAGE_SIZE : 0;
+				int last = ops.containsKey("page") ? first + PAGE_SIZE : Integer.MAX_VALUE;
 				int count = 0;
 				switch (args[1].toLowerCase()) {
 					case "unmatched": {
 						out.println("Unmatched source classes:");
 						for (String i : matcher.getUnmatched()) {
+							if (count >= last) return "More classes on page=" + (ops.getInt("page") + 1);
+							if (count++ < first) continue;
 							ClassTree item = matcher.before().lookup(i);
-							out.println(++count + ". Parent: " + item.parent().description());
-							out.println(item.toString());
+							out.println(count + ". Parent: " + item.parent().description());
+							renderer.render(item);
+							out.println();
 						}
 						break;
 					}
 					case "unassigned": {
 						out.println("Unassigned destination classes:");
 						for (String i : matcher.getUnassigned()) {
+							if (count >= last) return "More classes on page=" + (ops.getInt("page") + 1);
+							if (count++ < first) continue;
 							ClassTree item = matcher.after().lookup(i);
-							out.println(++count + ". Parent: " + item.parent().description());
-							out.println(item.toString());
+							out.println(count + ". Parent: " + item.parent().description());
+							renderer.render(item);
+							out.println();
 						}
 					}
 				}
 				return null;
 			}
 			case "grep": {
-				boolean reverse = args.length == 2 && "reverse".equalsIgnoreCase(args[1]);
-				Options ops = new Options();
+				final boolean reverse = args.length == 2 && "reverse".equalsIgnoreCase(args[1]);
+				final Options ops = new Options();
 				String line;
 				while ((line = readLine()) != null && !"\\".equals(line)) {
 					ops.readOption(line);
@@ -224,47 +251,85 @@ public class RemapperConsole extends CommandReader {
 					return "Terminate with \"\\\"";
 				}
 				ClassTree tree = reverse ? matcher.after() : matcher.before();
-				int matches = 0;
-				for (String i : tree.keySet()) {
-					ClassTree node = tree.lookup(i);
-					if (ops.containsKey("fields") && ops.getInt("fields") != node.fields()) continue;
-					if (ops.containsKey("methods") && ops.getInt("methods") != node.methods()) continue;
-					if (ops.containsKey("interfaces") && ops.getInt("interfaces") != node.interfaces()) continue;
-					if (ops.containsKey("isInner") && ops.getBool("IsInner") != node.isInner()) continue;
-					if (ops.containsKey("isInterface") && ops.getBool("IsInterface") != node.isInner()) continue;
-					if (ops.containsKey("parent") && !ops.get("parent").equals(node.parent().getName())) continue;
-					ClassTreeMatcher looked = reverse ? matcher.reverseLookup(i) : matcher.lookup(i);
-					if (ops.containsKey("unmatched")) {
-						if (ops.getBool("unmatched")) {
-							if (looked != null) continue;
-						} else {
-							if (looked == null) continue;
-						}
-					}
-					if (ops.containsKey("namechange")) {
-						if (ops.getBool("namechange")) {
-							if (looked != null && looked.before().getName().equals(looked.after().getName())) continue;
-						} else {
-							if (looked == null || !looked.before().getName().equals(looked.after().getName())) continue;
-						}
+				List<ClassTree> found = tree.stream().parallel().filter(new Predicate<ClassTree>() {
+					public boolean test(ClassTree node) {
+						return grep(ops, node, lookup(node, reverse));
 					}
+				}).collect(Collectors.<ClassTree>toList());
+				for (ClassTree node : found) {
+					ClassTreeMatcher looked = lookup(node, reverse);
 					if (looked == null) {
 						out.print(reverse ? "{null} -> " : "{null} <- ");
 						out.println(node.description());
 					} else {
-						if (ops.containsKey("samefields") && ops.getBool("samefields") != (looked.before().fields() == looked.after().fields())) continue;
-						if (ops.containsKey("samemethods") && ops.getBool("samemethods") != (looked.before().methods() == looked.after().methods())) continue;
-						if (ops.containsKey("sameinterfaces") && ops.getBool("sameinterfaces") != (looked.before().interfaces() == looked.after().interfaces())) continue;
 						out.println(looked.description());
 					}
-					matches++;
 				}
-				return matches + " classes matched.";
+				return found.size() + " classes matched.";
 			}
 		}
 		return "Command Not Found: " + args[0];
 	}
 	
+	private ClassTreeMatcher lookup(ClassTree node, boolean reverse) {
+		return reverse ? matcher.reverseLookup(node.getName()) : matcher.lookup(node.getName());
+	}
+	
+	/**
+	 * Checks a class and its mapping, if it has one, against the conditions given to grep.
+	 */
+	private static boolean grep(Options ops, ClassTree node, ClassTreeMatcher looked) {
+		if (ops.containsKey("fields") && ops.getInt("fields") != node.fields()) return false;
+		if (ops.containsKey("methods") && ops.getInt("methods") != node.methods()) return false;
+		if (ops.containsKey("interfaces") && ops.getInt("interfaces") != node.interfaces()) return false;
+		if (ops.containsKey("isInner") && ops.getBool("IsInner") != node.isInner()) return false;
+		if (ops.containsKey("isInterface") && ops.getBool("IsInterface") != node.isInner()) return false;
+		if (ops.containsKey("parent") && !ops.get("parent").equals(node.parent().getName())) return false;
+		if (ops.containsKey("unmatched")) {
+			if (ops.getBool("unmatched")) {
+				if (looked != null) return false;
+			} else {
+				if (looked == null) return false;
+			}
+		}
+		if (ops.containsKey("namechange")) {
+			if (ops.getBool("namechange")) {
+				if (looked != null && looked.before().getName().equals(looked.after().getName())) return false;
+			} else {
+				if (looked == null || !looked.before().getName().equals(looked.after().getName())) return false;
+			}
+		}
+		if (looked != null) {
+			if (ops.containsKey("samefields") && ops.getBool("samefields") != (looked.before().fields() == looked.after().fields())) return false;
+			if (ops.containsKey("samemethods") && ops.getBool("samemethods") != (looked.before().methods() == looked.after().methods())) return false;
+			if (ops.containsKey("sameinterfaces") && ops.getBool("sameinterfaces") != (looked.before().interfaces() == looked.after().interfaces())) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Reads trailing {key}={value} arguments, such as depth=2 or page=1, starting from the given index.
+	 */
+	private Options readOptions(String[] args, int start) {
+		Options ops = new Options();
+		for (int i = start; i < args.length; i++) {
+			ops.readOption(args[i]);
+		}
+		return ops;
+	}
+	
+	/**
+	 * Writes a tree to the console, limited by any depth and page options found in the arguments.
+	 */
+	private <T extends Tree<T, ?>> String render(TreeRenderer<T> renderer, T tree, String[] args, int start) throws IOException {
+		Options ops = readOptions(args, start);
+		if (ops.containsKey("depth")) renderer.maxDepth(ops.getInt("depth"));
+		if (ops.containsKey("page")) renderer.page(ops.getInt("page"), PAGE_SIZE);
+		renderer.render(tree);
+		if (renderer.isTruncated()) return "More lines on page=" + (ops.getInt("page") + 1);
+		return null;
+	}
+	
 	private OBFTable loadSrg() throws IOException {
 		if (srgtable == null) {
 			parser = new SRGFileParser("", false);
@@ -275,8 +340,8 @@ public class RemapperConsole extends CommandReader {
 	}
 	
 	public void printHelp() {
-		out.println("lookup [classname] {full}\t-\tRetrieves a single class mapping from a loaded tree.");
-		out.println("lookup-reverse [classname] {full}\t-\tRetrieves the class that is mapped into the given one.");
+		out.println("lookup [classname] {full} {depth=n} {page=n}\t-\tRetrieves a single class mapping from a loaded tree.");
+		out.println("lookup-reverse [classname] {full} {depth=n} {page=n}\t-\tRetrieves the class that is mapped into the given one.");
 		out.println("lookup-parent [classname] {reverse}\t-\tRetrieves the parent of the given class.");
 		out.println("lookup-obf [mcp name]\t-\tFinds the obfuscated name for the given MCP name.");
 		out.println("lookup-mcp [obf name]\t-\tFinds the MCP name for the given obfuscated name.");
@@ -284,10 +349,10 @@ public class RemapperConsole extends CommandReader {
 		out.println("swap [one] [two]\t-\tSwaps the destinations of two classes.");
 		out.println("save-mcp [file]\t-\tRemap and output mcp mappings for the current class map tree.");
 		out.println("save-enigma [file]\t-\tCreates enigma mappings from the current tree that applies to the destination jar");
-		out.println("save-tree [file]\t-\tOutput the entire class map tree to file.");
+		out.println("save-tree [file] {depth=n}\t-\tOutput the entire class map tree to file.");
 		out.println("save-json [file]\t-\tSaves the match tree to json. Useful if you want to edit it later.");
 		out.println("load-json [file]\t-\tLoads a match tree from json.");
-		out.println("list [unmatched|unassigned]\t-\tPrints a list of all classes not included in the matching tree.");
+		out.println("list [unmatched|unassigned] {depth=n} {page=n}\t-\tPrints a list of all classes not included in the matching tree.");
 		out.println("grep {reverse}\t-\tFinds classes matching given conditions.");
 		out.println("exit\t-\tExit");
 	}
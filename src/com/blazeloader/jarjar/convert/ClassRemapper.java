@@ -1,24 +1,46 @@
 package com.blazeloader.jarjar.convert;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.List;
 
+import org.objectweb.asm.ClassReader;
+
+import com.blazeloader.jarjar.Main;
 import com.blazeloader.jarjar.tree.ClassMap;
+import com.blazeloader.jarjar.tree.ClassPath;
+import com.blazeloader.jarjar.tree.ClassSummaryMap;
 import com.blazeloader.jarjar.tree.ClassTree;
 import com.blazeloader.jarjar.tree.ClassTreeMatcher;
+import com.blazeloader.jarjar.tree.AdaptiveSolver;
+import com.blazeloader.jarjar.tree.CandidateIndex;
+import com.blazeloader.jarjar.tree.ClassFeatures;
+import com.blazeloader.jarjar.tree.FrozenClassTree;
+import com.blazeloader.jarjar.tree.SimilarityCache;
+import com.blazeloader.jarjar.tree.SimilarityPipeline;
 
 import net.acomputerdog.OBFUtil.map.TargetType;
 import net.acomputerdog.OBFUtil.table.DirectOBFTable;
 import net.acomputerdog.OBFUtil.table.OBFTable;
 import net.acomputerdog.OBFUtil.util.Obfuscator;
 
-public class ClassRemapper {
+public class ClassRemapper implements Closeable {
 	private Obfuscator obfuscator = new Obfuscator();
-	private ClassMap source = new ClassMap(0);
-	private ClassMap destination = new ClassMap(0);
+	private final File sourceJar;
+	private final File destinationJar;
+	
+	private ClassSummaryMap source = new ClassSummaryMap(true);
+	private ClassSummaryMap destination = new ClassSummaryMap(true);
+	
+	private final ClassPath libraries;
+	
+	private final SimilarityPipeline scorer = scorer();
+	
+	private ClassMap sourceClasses;
+	private ClassMap destinationClasses;
 	
 	private ClassTree from;
 	private ClassTree to;
@@ -26,6 +48,22 @@ public class ClassRemapper {
 	private ClassTreeMatcher matcher = null;
 	
 	public ClassRemapper(File sourceJar, File destinationJar) {
+		this(sourceJar, destinationJar, null);
+	}
+	
+	/**
+	 * @param libraries	Libraries used to resolve super classes that are in neither jar. May be null.
+	 */
+	public ClassRemapper(File sourceJar, File destinationJar, ClassPath libraries) {
+		this.sourceJar = sourceJar;
+		this.destinationJar = destinationJar;
+		this.libraries = libraries;
+		source.setCacheDirectory(Main.CACHE_DIR);
+		destination.setCacheDirectory(Main.CACHE_DIR);
+		source.setLibraries(libraries);
+		destination.setLibraries(libraries);
+		source.setMethodFingerprints(scorer.weight(ClassFeatures.METHOD_BODIES) > 0);
+		destination.setMethodFingerprints(scorer.weight(ClassFeatures.METHOD_BODIES) > 0);
 		try {
 			source.readFromJar(sourceJar);
 			destination.readFromJar(destinationJar);
@@ -34,15 +72,55 @@ public class ClassRemapper {
 		}
 	}
 	
+	/**
+	 * Builds the pipeline classes are scored with from the {@link Main#FEATURES features} chosen.
+	 */
+	private static SimilarityPipeline scorer() {
+		SimilarityPipeline result = Main.FEATURES.trim().isEmpty() ? SimilarityPipeline.standard(Main.METHOD_WEIGHT) : SimilarityPipeline.parse(Main.FEATURES);
+		return Main.FEATURE_TIMES ? result.timed() : result;
+	}
+	
+	/**
+	 * Gets the fully parsed (without code) classes of the source jar. These are loaded on first use.
+	 */
 	public ClassMap source() {
-		return source;
+		if (sourceClasses == null) sourceClasses = loadClasses(sourceJar);
+		return sourceClasses;
 	}
 	
+	/**
+	 * Gets the fully parsed (without code) classes of the destination jar. These are loaded on first use.
+	 */
 	public ClassMap destination() {
-		return destination;
+		if (destinationClasses == null) destinationClasses = loadClasses(destinationJar);
+		return destinationClasses;
+	}
+	
+	/**
+	 * Releases the jars held open by the fully parsed classes, if they were loaded lazily.
+	 * They are loaded again if needed after.
+	 */
+	public void close() {
+		if (sourceClasses != null) sourceClasses.close();
+		if (destinationClasses != null) destinationClasses.close();
+		sourceClasses = null;
+		destinationClasses = null;
+	}
+	
+	private ClassMap loadClasses(File jar) {
+		ClassMap result = ClassMap.create(ClassReader.SKIP_CODE, Main.CLASS_CACHE);
+		result.setCacheDirectory(Main.CACHE_DIR);
+		result.setLibraries(libraries);
+		try {
+			result.readFromJar(jar);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return result;
 	}
 	
 	private void buildClassTrees() {
+		boolean built = from == null || to == null;
 		if (from == null) {
 			System.out.println("Building source class tree");
 			from = new ClassTree(source);
@@ -57,12 +135,35 @@ public class ClassRemapper {
 			System.out.println("Sorting destination tree...");
 			to.sort();
 		}
+		// The trees hold on to every summary they need. Drop the maps so only those stay reachable.
+		source = null;
+		destination = null;
+		if (libraries != null) {
+			if (built && !libraries.isEmpty()) System.out.println(libraries);
+			libraries.close();
+		}
 	}
 	
 	public ClassTreeMatcher loadMatcher() {
 		buildClassTrees();
 		System.out.println("Performing best match analysis");
-		matcher = new ClassTreeMatcher(from, to);
+		SimilarityCache.setDefaultCapacity(Main.SIMILARITY_CACHE);
+		FrozenClassTree.setPruning(Main.PRUNE);
+		FrozenClassTree.resetCounts();
+		CandidateIndex.setDefaultRange(Main.CANDIDATE_RANGE);
+		CandidateIndex.resetCounts();
+		ClassTreeMatcher.setAssignmentSolver(AdaptiveSolver.named(Main.ASSIGNMENT));
+		ClassTreeMatcher.setParallel(Main.PARALLEL);
+		if (Main.PARALLEL && ClassTreeMatcher.getAssignmentSolver() == null) {
+			System.err.println("Warning: jarjar.parallel is ignored with greedy assignment. Set jarjar.assignment to hungarian, auction or optimal to match in parallel.");
+		}
+		scorer.resetCounts();
+		matcher = new ClassTreeMatcher(from, to, scorer);
+		SimilarityCache cache = from.freeze().cache(to.freeze(), scorer);
+		if (cache != null) System.out.println(cache);
+		if (scorer.isTimed()) System.out.println(scorer.report());
+		if (Main.CANDIDATE_RANGE >= 0) System.out.println(CandidateIndex.report());
+		if (Main.PRUNE) System.out.println(FrozenClassTree.report());
 		System.out.println("Classes matched: " + matcher.size());
 		System.out.println("Average computed similarity: " + Math.floor(matcher.averageSimilarity() * 100)/100 + "%");
 		return matcher;
@@ -89,7 +190,7 @@ public class ClassRemapper {
 					} catch (IOException e) {}
 				}
 			}
-			matcher = ClassTreeMatcher.loadFromJson(from, to, json);
+			matcher = ClassTreeMatcher.loadFromJson(from, to, json, scorer);
 			System.out.println("Match tree successfuly loaded");
 			System.out.println("Classes matched: " + matcher.size());
 			System.out.println("Average match: " + Math.floor(matcher.averageSimilarity() * 100)/100 + "%");
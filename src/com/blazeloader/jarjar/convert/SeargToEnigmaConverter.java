@@ -1,15 +1,18 @@
 package com.blazeloader.jarjar.convert;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
 
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
 
+import com.blazeloader.jarjar.Main;
 import com.blazeloader.jarjar.tree.ClassMap;
 
 import net.acomputerdog.OBFUtil.map.TargetType;
@@ -19,15 +22,22 @@ import net.acomputerdog.OBFUtil.table.OBFTable;
 import net.acomputerdog.OBFUtil.util.Obfuscator;
 import net.acomputerdog.core.java.Patterns;
 
-public class SeargToEnigmaConverter {
+public class SeargToEnigmaConverter implements Closeable {
 	private final Obfuscator obfuscator = new Obfuscator();
 	
 	private ClassMap classes;
 	private OBFTable table;
 	
+	/**
+	 * True if the classes were read by this converter, and so are closed with it.
+	 */
+	private final boolean ownsClasses;
+	
 	public SeargToEnigmaConverter(boolean side, File seargeFile, File jarFile) {
 		SRGFileParser seargeParser = new SRGFileParser(side ? "C"  : "S", false);
-		classes = new ClassMap();
+		classes = ClassMap.create(ClassReader.SKIP_CODE, Main.CLASS_CACHE);
+		classes.setCacheDirectory(Main.CACHE_DIR);
+		ownsClasses = true;
 		table = new DirectOBFTable();
 		try {
 			classes.readFromJar(jarFile);
@@ -40,6 +50,14 @@ public class SeargToEnigmaConverter {
 	public SeargToEnigmaConverter(ClassMap classes, OBFTable table) {
 		this.classes = classes;
 		this.table = table;
+		ownsClasses = false;
+	}
+	
+	/**
+	 * Releases the jar held open by the classes this converter read itself. Classes it was given are left open.
+	 */
+	public void close() {
+		if (ownsClasses) classes.close();
 	}
 	
 	public String fieldType(String className, String memberName) {
@@ -70,6 +88,7 @@ public class SeargToEnigmaConverter {
             	if (i.indexOf("$") != -1) continue;
             	writeClass(out, "", i, classes, methods, fields);
             }
+            if (this.classes.isLazy()) System.out.println("Class cache: " + this.classes.getCache());
 		} finally {
             if (out != null) {
                 out.close();
@@ -0,0 +1,303 @@
+package com.blazeloader.jarjar.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only jar/zip file backed by a memory mapping of the whole file.
+ * <p>
+ * The central directory is read once when the file is opened. Entry contents are handed out
+ * as ByteBuffers: stored entries are slices of the mapping (no copy) and deflated entries are
+ * inflated straight from the mapping into a buffer of their uncompressed size.
+ * <p>
+ * Buffers handed out by an entry must not be used once the jar has been closed.
+ */
+public class MappedJarFile implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	
+	private static final int END_HEADER_SIZE = 22;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+	
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+	
+	private final File file;
+	private MappedByteBuffer mapping;
+	
+	private final List<Entry> entries;
+	private final Map<String, Entry> byName;
+	
+	private final String comment;
+	
+	public MappedJarFile(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) throw new ZipException("Jar file too large to map: " + file);
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapping.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+		
+		int end = findEndHeader();
+		int total = u16(end + 10);
+		int directory = s32(end + 16);
+		int commentLength = u16(end + 20);
+		if (total == 0xFFFF || directory == -1) throw new ZipException("Zip64 archives are not supported: " + file);
+		comment = commentLength > 0 ? string(end + END_HEADER_SIZE, commentLength) : null;
+		
+		entries = new ArrayList<Entry>(total);
+		byName = new HashMap<String, Entry>(total * 2);
+		int pos = directory;
+		for (int i = 0; i < total; i++) {
+			if (s32(pos) != CENTRAL_HEADER) throw new ZipException("Invalid central directory header in " + file);
+			int nameLength = u16(pos + 28);
+			Entry entry = new Entry(
+					string(pos + CENTRAL_HEADER_SIZE, nameLength),
+					u16(pos + 8), u16(pos + 10),
+					s32(pos + 20), s32(pos + 24), s32(pos + 42));
+			entries.add(entry);
+			byName.put(entry.name, entry);
+			pos += CENTRAL_HEADER_SIZE + nameLength + u16(pos + 30) + u16(pos + 32);
+		}
+	}
+	
+	private int findEndHeader() throws ZipException {
+		int limit = Math.max(0, mapping.limit() - END_HEADER_SIZE - 0xFFFF);
+		for (int i = mapping.limit() - END_HEADER_SIZE; i >= limit; i--) {
+			if (s32(i) == END_HEADER) return i;
+		}
+		throw new ZipException("Not a zip file: " + file);
+	}
+	
+	private int u16(int pos) {
+		return mapping.getShort(pos) & 0xFFFF;
+	}
+	
+	private int s32(int pos) {
+		return mapping.getInt(pos);
+	}
+	
+	private String string(int pos, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer buf = mapping.duplicate();
+		buf.position(pos);
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Gets the path of the underlying file.
+	 */
+	public String getName() {
+		return file.getPath();
+	}
+	
+	/**
+	 * Gets the zip file comment, or null if there is none.
+	 */
+	public String getComment() {
+		return comment;
+	}
+	
+	/**
+	 * Gets the entire raw contents of the file.
+	 */
+	public ByteBuffer contents() {
+		return mapping().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Gets all entries in the order they appear in the central directory.
+	 */
+	public List<Entry> entries() {
+		return Collections.unmodifiableList(entries);
+	}
+	
+	/**
+	 * Gets an entry by name. Returns null if no such entry exists.
+	 */
+	public Entry getEntry(String name) {
+		return byName.get(name);
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the mapping of the file.
+	 * @throws IllegalStateException if the jar has been closed
+	 */
+	private MappedByteBuffer mapping() {
+		MappedByteBuffer result = mapping;
+		if (result == null) throw new IllegalStateException("jar closed: " + file);
+		return result;
+	}
+	
+	/**
+	 * Releases the mapping. Buffers previously returned by entries become invalid, and reading entries throws an IllegalStateException.
+	 */
+	public void close() {
+		if (mapping != null) {
+			unmap(mapping);
+			mapping = null;
+		}
+	}
+	
+	/**
+	 * Eagerly releases a mapping so the file can be moved or deleted straight away on platforms that lock mapped files.
+	 * Falls back to leaving it to the garbage collector if the running JVM does not expose a way to do so.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				Object clean = cleaner.invoke(buffer);
+				if (clean != null) clean.getClass().getMethod("clean").invoke(clean);
+			}
+		} catch (ReflectiveOperationException e) {
+			// No cleaner this JVM lets us call. The mapping is released once it is garbage collected.
+		}
+	}
+	
+	public class Entry {
+		private final String name;
+		private final int flags;
+		private final int method;
+		
+		private final int compressedSize;
+		private final int size;
+		
+		private final int headerOffset;
+		
+		private Entry(String name, int flags, int method, int compressedSize, int size, int headerOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.headerOffset = headerOffset;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Gets the uncompressed size of this entry.
+		 */
+		public int getSize() {
+			return size;
+		}
+		
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+		
+		/**
+		 * Returns true if this entry is stored without compression, i.e. {@link #read()} will not copy.
+		 */
+		public boolean isStored() {
+			return method == STORED;
+		}
+		
+		private int dataOffset() throws ZipException {
+			if (s32(headerOffset) != LOCAL_HEADER) throw new ZipException("Invalid local header for " + name);
+			return headerOffset + LOCAL_HEADER_SIZE + u16(headerOffset + 26) + u16(headerOffset + 28);
+		}
+		
+		/**
+		 * Gets the uncompressed contents of this entry.
+		 * Stored entries are returned as a read-only slice of the mapped file.
+		 * @throws IllegalStateException if the jar has been closed
+		 */
+		public ByteBuffer read() throws IOException {
+			if ((flags & 1) != 0) throw new ZipException("Encrypted entries are not supported: " + name);
+			ByteBuffer data = mapping().duplicate();
+			int offset = dataOffset();
+			data.position(offset);
+			data.limit(offset + compressedSize);
+			if (method == STORED) return data.slice().asReadOnlyBuffer();
+			if (method != DEFLATED) throw new ZipException("Unsupported compression method " + method + " for " + name);
+			return ByteBuffer.wrap(inflate(data));
+		}
+		
+		/**
+		 * Gets the uncompressed contents of this entry as a byte array.
+		 * @throws IllegalStateException if the jar has been closed
+		 */
+		public byte[] readBytes() throws IOException {
+			ByteBuffer data = read();
+			if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) return data.array();
+			byte[] result = new byte[data.remaining()];
+			data.get(result);
+			return result;
+		}
+		
+		private byte[] inflate(ByteBuffer data) throws ZipException {
+			Inflater inflater = inflaters.get();
+			byte[] input = scratch.get();
+			byte[] result = new byte[size];
+			int written = 0;
+			inflater.reset();
+			try {
+				while (!inflater.finished() && written < size) {
+					if (inflater.needsInput()) {
+						int chunk = Math.min(input.length, data.remaining());
+						if (chunk == 0) break;
+						data.get(input, 0, chunk);
+						inflater.setInput(input, 0, chunk);
+					}
+					written += inflater.inflate(result, written, size - written);
+					if (inflater.needsDictionary()) break;
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException("Corrupt entry " + name + ": " + e.getMessage());
+			}
+			if (written != size) throw new ZipException("Truncated entry " + name);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.blazeloader.jarjar.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.blazeloader.jarjar.io.MappedJarFile;
+
+/**
+ * A map of class name to some parsed form of that class, loaded from the class entries of a jar.
+ */
+public abstract class AbstractClassMap<T> extends AbstractMap<String, T> {
+	/**
+	 * Number of entries a single fork-join task will parse before splitting.
+	 */
+	private static final int PARALLEL_THRESHOLD = 64;
+	
+	private final boolean parallel;
+	
+	private final Map<String, T> classes = new HashMap<String, T>();
+	
+	private File cacheDirectory;
+	
+	private ClassPath libraries;
+	
+	/**
+	 * @param parallel	True to decompress and parse jar entries on a fork-join pool
+	 */
+	protected AbstractClassMap(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Sets the directory parsed jars are cached in. Null disables caching.
+	 */
+	public void setCacheDirectory(File directory) {
+		cacheDirectory = directory;
+	}
+	
+	/**
+	 * Sets the libraries classes in this map may extend or implement. Null for none.
+	 */
+	public void setLibraries(ClassPath libraries) {
+		this.libraries = libraries;
+	}
+	
+	/**
+	 * Gets the libraries classes in this map may extend or implement. Null if none were given.
+	 */
+	public ClassPath getLibraries() {
+		return libraries;
+	}
+	
+	/**
+	 * Gets the summary of a class that is not in this map but is available from its libraries.
+	 * Returns null if the class cannot be found.
+	 */
+	public ClassSummary getLibrary(String className) {
+		return libraries == null ? null : libraries.get(className);
+	}
+	
+	public void readFromJar(File jarFile) throws IOException {
+		clear();
+		long start = System.nanoTime();
+		MappedJarFile jar = null;
+		try {
+			jar = new MappedJarFile(jarFile);
+			String kind = cacheKind();
+			ClassMapCache cache = cacheDirectory != null && kind != null ? new ClassMapCache(cacheDirectory, jarFile, jar, kind) : null;
+			if (cache != null && cache.read(this)) {
+				long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+				System.out.println(size() + " classes loaded from cache " + cache.getFile() + " in " + elapsed + "ms");
+				return;
+			}
+			if (parallel) {
+				readParallel(jar);
+			} else {
+				readSequential(jar);
+			}
+			long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+			System.out.println(size() + " classes successfully loaded from jar in " + elapsed + "ms (" + (size() * 1000L / elapsed) + " classes/s)");
+			if (cache != null) {
+				cache.write(this);
+				System.out.println("Parsed classes cached to " + cache.getFile());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (jar != null) jar.close();
+		}
+	}
+	
+	private void readSequential(MappedJarFile jar) throws IOException {
+		for (MappedJarFile.Entry entry : jar.entries()) {
+			String name = entry.getName();
+			if (name.endsWith(".class")) {
+				put(getClassName(name), readClass(entry));
+			}
+		}
+	}
+	
+	/**
+	 * Parses all class entries concurrently. Results are collected by entry index
+	 * and only put into the map once every task has finished, so the map is
+	 * filled in the same order as a sequential read would fill it.
+	 */
+	private void readParallel(MappedJarFile jar) throws IOException {
+		List<MappedJarFile.Entry> classes = new ArrayList<MappedJarFile.Entry>();
+		for (MappedJarFile.Entry entry : jar.entries()) {
+			if (entry.getName().endsWith(".class")) classes.add(entry);
+		}
+		Object[] parsed = new Object[classes.size()];
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new ParseTask(classes, parsed, 0, parsed.length));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < parsed.length; i++) {
+			@SuppressWarnings("unchecked")
+			T value = (T)parsed[i];
+			put(getClassName(classes.get(i).getName()), value);
+		}
+	}
+	
+	/**
+	 * Parses a single class entry.
+	 */
+	protected abstract T readClass(MappedJarFile.Entry entry) throws IOException;
+	
+	/**
+	 * Gets a name identifying what is stored in this map and how it was parsed, used to key the on-disk cache.
+	 * Returns null if the contents of this map cannot be cached.
+	 */
+	protected abstract String cacheKind();
+	
+	/**
+	 * Writes a single class to the on-disk cache.
+	 */
+	protected abstract void writeCached(DataOutput out, T value) throws IOException;
+	
+	/**
+	 * Reads a single class written by {@link #writeCached(DataOutput, Object)}.
+	 */
+	protected abstract T readCached(DataInput in) throws IOException;
+	
+	public T get(Object key) {
+		return classes.get(key);
+	}
+	
+	public boolean containsKey(Object key) {
+		return classes.containsKey(key);
+	}
+	
+	public T put(String key, T value) {
+		return classes.put(key, value);
+	}
+	
+	public T remove(Object key) {
+		return classes.remove(key);
+	}
+	
+	public void clear() {
+		classes.clear();
+	}
+	
+	public int size() {
+		return classes.size();
+	}
+	
+	public Set<Entry<String, T>> entrySet() {
+		return classes.entrySet();
+	}
+	
+	protected static String getClassName(String entryName) {
+		return entryName.split("\\.")[0];
+	}
+	
+	public Entry<String, T> getEntry(String key) {
+		if (!containsKey(key)) return null;
+		return new SimpleImmutableEntry<String, T>(key, get(key));
+	}
+	
+	private class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<MappedJarFile.Entry> entries;
+		private final Object[] results;
+		
+		private final int start;
+		private final int end;
+		
+		ParseTask(List<MappedJarFile.Entry> entries, Object[] results, int start, int end) {
+			this.entries = entries;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_THRESHOLD) {
+				try {
+					for (int i = start; i < end; i++) {
+						results[i] = readClass(entries.get(i));
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new ParseTask(entries, results, start, mid), new ParseTask(entries, results, mid, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.blazeloader.jarjar.tree;
+
+/**
+ * Solves small groups exactly with a {@link HungarianSolver} and larger ones with an {@link AuctionSolver},
+ * so groups of any size are assigned in predictable time.
+ */
+public final class AdaptiveSolver implements AssignmentSolver {
+	private final AssignmentSolver exact = new HungarianSolver();
+	private final AssignmentSolver approximate;
+	
+	private final int limit;
+	
+	/**
+	 * @param limit		Largest number of rows or columns a group can have to be solved exactly
+	 * @param epsilon	Most the total score of a larger group can fall short of the best possible, per row
+	 */
+	public AdaptiveSolver(int limit, double epsilon) {
+		this.limit = limit;
+		approximate = new AuctionSolver(epsilon);
+	}
+	
+	public int[] solve(double[] scores, int rows, int columns) {
+		if (Math.max(rows, columns) <= limit) return exact.solve(scores, rows, columns);
+		return approximate.solve(scores, rows, columns);
+	}
+	
+	/**
+	 * Gets a solver by name: "hungarian", "auction", or "optimal" for one that picks between the two by the size of each group.
+	 * "greedy" gives null, meaning classes are assigned one at a time as they are compared.
+	 * @throws IllegalArgumentException if the name is not one of these
+	 */
+	public static AssignmentSolver named(String name) {
+		if ("greedy".equals(name)) return null;
+		if ("hungarian".equals(name)) return new HungarianSolver();
+		if ("auction".equals(name)) return new AuctionSolver(0.01);
+		if ("optimal".equals(name)) return new AdaptiveSolver(256, 0.01);
+		throw new IllegalArgumentException("Unknown assignment solver: " + name);
+	}
+}
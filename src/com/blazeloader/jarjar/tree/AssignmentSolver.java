@@ -0,0 +1,25 @@
+package com.blazeloader.jarjar.tree;
+
+/**
+ * Pairs up the classes of a sibling group with those they could be matched to.
+ * <p>
+ * A solver is given the similarity of every source class (the rows) to every destination class (the columns)
+ * and chooses at most one column for each row, and at most one row for each column, so that the sum of the
+ * scores chosen is as high as it can make it.
+ */
+public interface AssignmentSolver {
+	/**
+	 * Score of a pair that must not be chosen. Solvers avoid these where they can, and pairs chosen with it
+	 * anyway, when a row has nothing else left, are to be treated as unassigned.
+	 */
+	public static final double FORBIDDEN = -1e9;
+	
+	/**
+	 * Assigns rows to columns.
+	 * @param scores	Score of every pair, row major: the score of row i and column j is at scores[i * columns + j], or {@link #FORBIDDEN}
+	 * @param rows		Number of rows
+	 * @param columns	Number of columns
+	 * @return The column given to each row, or -1 for rows that were not given one
+	 */
+	public int[] solve(double[] scores, int rows, int columns);
+}
@@ -0,0 +1,134 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Arrays;
+
+/**
+ * Finds an assignment with a total score within epsilon per row of the best possible with Bertsekas' auction algorithm.
+ * <p>
+ * Unassigned rows bid for the column that is worth the most to them at its current price, raising the price
+ * by how much more it is worth than their second choice plus epsilon. Epsilon starts large and is cut down
+ * in rounds, each starting from the prices of the last, so the number of bids grows with the size of the
+ * group rather than with the spread of its scores. Groups that are not square are padded with pairs that
+ * score 0.
+ * <p>
+ * {@link #FORBIDDEN Forbidden} pairs are bid for as if they scored 0 as well, since taking one is the same as
+ * leaving the row unassigned, and are left out of the result. Bids stay on the scale of the real scores, so
+ * epsilon scaling works the same with them as without.
+ * <p>
+ * The result is checked against assigning each row in turn its best free column, and whichever scores
+ * higher is used, so the total is never worse than that.
+ */
+public final class AuctionSolver implements AssignmentSolver {
+	private static final double SCALING = 5;
+	
+	private final double epsilon;
+	
+	/**
+	 * @param epsilon	Most the total score can fall short of the best possible, per row
+	 */
+	public AuctionSolver(double epsilon) {
+		if (epsilon <= 0) throw new IllegalArgumentException("Epsilon must be greater than 0");
+		this.epsilon = epsilon;
+	}
+	
+	public int[] solve(double[] scores, int rows, int columns) {
+		int[] result = auction(scores, rows, columns);
+		int[] greedy = greedy(scores, rows, columns);
+		return total(scores, columns, greedy) > total(scores, columns, result) ? greedy : result;
+	}
+	
+	/**
+	 * Assigns rows to columns by auction alone, without checking the result against greedy assignment.
+	 */
+	int[] auction(double[] scores, int rows, int columns) {
+		int n = Math.max(rows, columns);
+		double range = 0;
+		for (int i = 0; i < rows * columns; i++) {
+			if (scores[i] != FORBIDDEN) range = Math.max(range, Math.abs(scores[i]));
+		}
+		double[] prices = new double[n];
+		int[] owner = new int[n];
+		int[] assigned = new int[n];
+		int[] queue = new int[n];
+		double step = Math.max(epsilon, range / SCALING);
+		while (true) {
+			Arrays.fill(owner, -1);
+			Arrays.fill(assigned, -1);
+			for (int i = 0; i < n; i++) {
+				queue[i] = i;
+			}
+			int waiting = n;
+			while (waiting > 0) {
+				int row = queue[--waiting];
+				int best = -1;
+				double bestValue = Double.NEGATIVE_INFINITY;
+				double secondValue = Double.NEGATIVE_INFINITY;
+				for (int j = 0; j < n; j++) {
+					double value = score(scores, rows, columns, row, j) - prices[j];
+					if (value > bestValue) {
+						secondValue = bestValue;
+						bestValue = value;
+						best = j;
+					} else if (value > secondValue) {
+						secondValue = value;
+					}
+				}
+				prices[best] += n == 1 ? step : bestValue - secondValue + step;
+				if (owner[best] != -1) {
+					assigned[owner[best]] = -1;
+					queue[waiting++] = owner[best];
+				}
+				owner[best] = row;
+				assigned[row] = best;
+			}
+			if (step <= epsilon) break;
+			step = Math.max(epsilon, step / SCALING);
+		}
+		int[] result = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			int j = assigned[i];
+			result[i] = j < columns && scores[i * columns + j] != FORBIDDEN ? j : -1;
+		}
+		return result;
+	}
+	
+	/**
+	 * Gets the score of a pair. Padding and {@link #FORBIDDEN forbidden} pairs score 0, as they leave the row unassigned.
+	 */
+	private static double score(double[] scores, int rows, int columns, int row, int column) {
+		if (row >= rows || column >= columns) return 0;
+		double score = scores[row * columns + column];
+		return score == FORBIDDEN ? 0 : score;
+	}
+	
+	/**
+	 * Gives each row in turn the free column it scores highest with, leaving it unassigned if it has no allowed column free.
+	 */
+	private static int[] greedy(double[] scores, int rows, int columns) {
+		int[] result = new int[rows];
+		boolean[] taken = new boolean[columns];
+		for (int i = 0; i < rows; i++) {
+			int best = -1;
+			for (int j = 0; j < columns; j++) {
+				if (taken[j] || scores[i * columns + j] == FORBIDDEN) continue;
+				if (best == -1 || scores[i * columns + j] > scores[i * columns + best]) best = j;
+			}
+			result[i] = best;
+			if (best != -1) taken[best] = true;
+		}
+		return result;
+	}
+	
+	/**
+	 * Sums the scores of an assignment. Forbidden pairs count as unassigned.
+	 */
+	private static double total(double[] scores, int columns, int[] assignment) {
+		double result = 0;
+		for (int i = 0; i < assignment.length; i++) {
+			if (assignment[i] == -1) continue;
+			double score = scores[i * columns + assignment[i]];
+			if (score != FORBIDDEN) result += score;
+		}
+		return result;
+	}
+}
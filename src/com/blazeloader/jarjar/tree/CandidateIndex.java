@@ -0,0 +1,181 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups the classes a class could be matched with by a coarse fingerprint, so only plausible candidates get scored.
+ * <p>
+ * Every candidate goes in a bucket keyed by whether it is an interface, whether it is an inner class, and the
+ * bands its numbers of fields, methods and interfaces fall in. Bands double in width (0, 1, 2-3, 4-7, ...), so
+ * classes with close counts share them. A class is only scored against candidates in buckets that are
+ * within {@link #setDefaultRange(int) range} bands of its own on every count. The wider the range, the fewer
+ * good matches are missed and the more pairs are scored.
+ * <p>
+ * Interfaces are keyed by how many a class implements rather than by their names. Most interfaces in an
+ * obfuscated jar are renamed from one version to the next, so keying on the names would put a class and
+ * its true match in different buckets.
+ * <p>
+ * If none of the candidates are close enough, all of them are scored, so a class always has candidates
+ * when its group has any. Otherwise the candidate left out may have been the one that would have scored
+ * best, so an index can change which candidate a class is matched with.
+ */
+public final class CandidateIndex {
+	/**
+	 * Groups with fewer candidates than this are always scored in full.
+	 */
+	public static final int MIN_CANDIDATES = 32;
+	
+	private static final int BAND_BITS = 6;
+	private static final int BAND_MASK = (1 << BAND_BITS) - 1;
+	
+	private static int defaultRange = -1;
+	
+	private static final AtomicLong scored = new AtomicLong();
+	private static final AtomicLong skipped = new AtomicLong();
+	
+	private final int[] candidates;
+	private final int range;
+	
+	/**
+	 * Keys of the buckets, and the positions in {@link #candidates} of the classes in each. Null if every candidate is scored.
+	 */
+	private final int[] keys;
+	private final int[][] buckets;
+	
+	/**
+	 * @param tree			Tree the candidates are in
+	 * @param candidates	Ids of the candidates, in the order they are to be scored
+	 */
+	public CandidateIndex(FrozenClassTree tree, int[] candidates) {
+		this.candidates = candidates;
+		range = defaultRange;
+		if (range < 0 || candidates.length < MIN_CANDIDATES) {
+			keys = null;
+			buckets = null;
+			return;
+		}
+		Map<Integer, Integer> indices = new HashMap<Integer, Integer>();
+		int[] sizes = new int[candidates.length];
+		int[] bucketOf = new int[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			Integer key = key(tree, candidates[i]);
+			Integer index = indices.get(key);
+			if (index == null) indices.put(key, index = indices.size());
+			bucketOf[i] = index;
+			sizes[index]++;
+		}
+		keys = new int[indices.size()];
+		buckets = new int[indices.size()][];
+		for (Map.Entry<Integer, Integer> i : indices.entrySet()) {
+			keys[i.getValue()] = i.getKey();
+			buckets[i.getValue()] = new int[sizes[i.getValue()]];
+			sizes[i.getValue()] = 0;
+		}
+		for (int i = 0; i < candidates.length; i++) {
+			buckets[bucketOf[i]][sizes[bucketOf[i]]++] = i;
+		}
+	}
+	
+	/**
+	 * Sets how many bands apart the counts of a class and a candidate can be for the candidate to be scored,
+	 * for indexes created from then on. -1, the default, scores every candidate.
+	 */
+	public static void setDefaultRange(int range) {
+		defaultRange = Math.max(-1, range);
+	}
+	
+	public static int getDefaultRange() {
+		return defaultRange;
+	}
+	
+	/**
+	 * Gets the number of pairs of classes that were scored by all indexes so far.
+	 */
+	public static long scored() {
+		return scored.get();
+	}
+	
+	/**
+	 * Gets the number of pairs of classes that were left out by all indexes so far.
+	 */
+	public static long skipped() {
+		return skipped.get();
+	}
+	
+	public static void resetCounts() {
+		scored.set(0);
+		skipped.set(0);
+	}
+	
+	public static String report() {
+		long s = scored.get();
+		long k = skipped.get();
+		long total = s + k;
+		String rate = total == 0 ? "0" : String.valueOf(Math.floor(k * 10000d / total) / 100);
+		return "Candidate index: " + s + " pairs scored, " + k + " skipped (" + rate + "%), range " + defaultRange;
+	}
+	
+	private static int band(int count) {
+		return 32 - Integer.numberOfLeadingZeros(Math.abs(count));
+	}
+	
+	private static int key(FrozenClassTree tree, int id) {
+		return key(tree.isInterface(id), tree.isInner(id),
+				band(tree.fields(id)), band(tree.methods(id)), band(tree.feature(id, FrozenClassTree.INTERFACES)));
+	}
+	
+	private static int key(boolean isInterface, boolean isInner, int fields, int methods, int interfaces) {
+		int key = (isInterface ? 1 : 0) | (isInner ? 2 : 0);
+		key |= fields << 2;
+		key |= methods << (2 + BAND_BITS);
+		key |= interfaces << (2 + BAND_BITS * 2);
+		return key;
+	}
+	
+	/**
+	 * Finds the candidates worth scoring against a class.
+	 * @param source		Tree the class is in
+	 * @param one			Id of the class
+	 * @param positions		Filled with the positions of the chosen candidates in the array given to this index, in ascending order
+	 * @param ids			Filled with the ids of the chosen candidates, in the same order
+	 * @return The number of candidates chosen
+	 */
+	public int find(FrozenClassTree source, int one, int[] positions, int[] ids) {
+		int count = keys == null ? 0 : gather(source, one, positions);
+		if (count == 0) {
+			count = candidates.length;
+			for (int i = 0; i < count; i++) {
+				positions[i] = i;
+			}
+		} else {
+			Arrays.sort(positions, 0, count);
+		}
+		for (int i = 0; i < count; i++) {
+			ids[i] = candidates[positions[i]];
+		}
+		scored.addAndGet(count);
+		skipped.addAndGet(candidates.length - count);
+		return count;
+	}
+	
+	private int gather(FrozenClassTree source, int one, int[] positions) {
+		int flags = key(source.isInterface(one), source.isInner(one), 0, 0, 0);
+		int fields = band(source.fields(one));
+		int methods = band(source.methods(one));
+		int interfaces = band(source.feature(one, FrozenClassTree.INTERFACES));
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int key = keys[i];
+			if ((key & 3) != flags) continue;
+			if (Math.abs(((key >>> 2) & BAND_MASK) - fields) > range) continue;
+			if (Math.abs(((key >>> (2 + BAND_BITS)) & BAND_MASK) - methods) > range) continue;
+			if (Math.abs(((key >>> (2 + BAND_BITS * 2)) & BAND_MASK) - interfaces) > range) continue;
+			System.arraycopy(buckets[i], 0, positions, count, buckets[i].length);
+			count += buckets[i].length;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,91 @@
+package com.blazeloader.jarjar.tree;
+
+/**
+ * The features of classes that can be compared when matching them.
+ */
+public final class ClassFeatures {
+	private static final int NESTING_MATCH = -1;
+	private static final int ABSTRACT_MATCH = -2;
+	private static final int METHOD_FINGERPRINTS = -3;
+	
+	/**
+	 * Compare the numbers of fields, methods, abstract methods and interfaces of two classes, scoring the smaller over the larger.
+	 */
+	public static final SimilarityScorer FIELDS = new Feature("fields", FrozenClassTree.FIELDS);
+	public static final SimilarityScorer METHODS = new Feature("methods", FrozenClassTree.METHODS);
+	public static final SimilarityScorer ABSTRACT_METHODS = new Feature("abstractMethods", FrozenClassTree.ABSTRACT_METHODS);
+	public static final SimilarityScorer INTERFACES = new Feature("interfaces", FrozenClassTree.INTERFACES);
+	
+	/**
+	 * Scores 1 if the chains of outer classes of two classes are inner classes at the same positions.
+	 */
+	public static final SimilarityScorer NESTING = new Feature("nesting", NESTING_MATCH);
+	
+	/**
+	 * Scores 1 if two classes are both abstract or both not.
+	 */
+	public static final SimilarityScorer ABSTRACT = new Feature("abstract", ABSTRACT_MATCH);
+	
+	/**
+	 * Compares the {@link MethodFingerprint fingerprints} of the methods of two classes.
+	 * Only classes read with method fingerprints turned on have any, so this scores 0 if either class has none.
+	 */
+	public static final SimilarityScorer METHOD_BODIES = new Feature("methodBodies", METHOD_FINGERPRINTS);
+	
+	private static final SimilarityScorer[] ALL = {FIELDS, METHODS, ABSTRACT_METHODS, INTERFACES, NESTING, ABSTRACT, METHOD_BODIES};
+	
+	private ClassFeatures() {
+	
+	}
+	
+	/**
+	 * Gets a feature by its {@link SimilarityScorer#name() name}.
+	 * @throws IllegalArgumentException if there is no feature with that name
+	 */
+	public static SimilarityScorer named(String name) {
+		for (SimilarityScorer i : ALL) {
+			if (i.name().equals(name)) return i;
+		}
+		throw new IllegalArgumentException("Unknown feature: " + name);
+	}
+	
+	/**
+	 * Every built in feature is one class, so a pipeline of them calls a single implementation the JIT can inline.
+	 */
+	private static final class Feature implements SimilarityScorer {
+		private final String name;
+		
+		/**
+		 * Position of the count compared in a class's fingerprint, or one of the negative kinds above.
+		 */
+		private final int feature;
+		
+		Feature(String name, int feature) {
+			this.name = name;
+			this.feature = feature;
+		}
+		
+		public String name() {
+			return name;
+		}
+		
+		public float score(FrozenClassTree before, int one, FrozenClassTree after, int two) {
+			switch (feature) {
+				case NESTING_MATCH: return before.matchNesting(one, after, two) ? 1 : 0;
+				case ABSTRACT_MATCH: return before.isAbstract(one) == after.isAbstract(two) ? 1 : 0;
+				case METHOD_FINGERPRINTS: return methodSimilarity(before.methodFingerprints(one), after.methodFingerprints(two));
+			}
+			int a = before.feature(one, feature);
+			int b = after.feature(two, feature);
+			if (a == b) return 1;
+			a = Math.abs(a);
+			b = Math.abs(b);
+			return (float)Math.min(a, b) / (float)Math.max(a, b);
+		}
+		
+		private static float methodSimilarity(long[] one, long[] two) {
+			if (one == null || two == null) return 0;
+			return MethodFingerprint.similarity(one, two);
+		}
+	}
+}
@@ -1,55 +1,321 @@
 package com.blazeloader.jarjar.tree;
 
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.io.UncheckedIOException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
-public class ClassMap extends HashMap<String, ClassNode> {
+import com.blazeloader.jarjar.io.MappedJarFile;
+
+/**
+ * A map of class names to parsed classes.
+ * <p>
+ * By default every class is parsed when the jar is read and stays resident. A ClassMap created
+ * with a cache budget instead only indexes the jar's entries and parses classes when they are
+ * first requested, keeping as many of them as fit in the budget and evicting the least recently
+ * used. In that mode the jar stays mapped until the map is cleared or closed.
+ * <p>
+ * Eagerly loaded maps read without code can be cached on disk. Cached classes keep their
+ * header, inner classes, and the access, names, descriptors, and signatures of their members,
+ * but not annotations, attributes, or field constant values.
+ */
+public class ClassMap extends AbstractClassMap<ClassNode> implements Closeable {
+	/**
+	 * Rough ratio of the heap used by a parsed ClassNode to the size of its class file.
+	 */
+	private static final int NODE_EXPANSION = 4;
+	
 	private final int directives;
 	
+	private final ClassNodeCache cache;
+	private final Map<String, MappedJarFile.Entry> sources;
+	
+	private MappedJarFile jar;
+	
 	public ClassMap() {
 		this(ClassReader.SKIP_CODE);
 	}
 	
 	public ClassMap(int directive) {
+		this(directive, false);
+	}
+	
+	/**
+	 * @param directive	ClassReader flags used when parsing classes
+	 * @param parallel	True to decompress and parse jar entries on a fork-join pool
+	 */
+	public ClassMap(int directive, boolean parallel) {
+		super(parallel);
+		directives = directive;
+		cache = null;
+		sources = null;
+	}
+	
+	/**
+	 * Creates a ClassMap that parses classes on demand.
+	 * @param directive		ClassReader flags used when parsing classes
+	 * @param cacheBudget	Estimated heap size in bytes that parsed classes may occupy
+	 */
+	public ClassMap(int directive, long cacheBudget) {
+		super(false);
 		directives = directive;
+		cache = new ClassNodeCache(cacheBudget);
+		sources = new HashMap<String, MappedJarFile.Entry>();
+	}
+	
+	/**
+	 * Creates a ClassMap that parses classes on demand if a positive cache budget is given,
+	 * otherwise one that parses every class up front in parallel.
+	 */
+	public static ClassMap create(int directive, long cacheBudget) {
+		return cacheBudget > 0 ? new ClassMap(directive, cacheBudget) : new ClassMap(directive, true);
+	}
+	
+	/**
+	 * Returns true if classes are only parsed when requested.
+	 */
+	public boolean isLazy() {
+		return cache != null;
+	}
+	
+	/**
+	 * Gets the cache holding parsed classes. Null unless this map {@link #isLazy() is lazy}.
+	 */
+	public ClassNodeCache getCache() {
+		return cache;
 	}
 	
 	public void readFromJar(File jarFile) throws IOException {
+		if (!isLazy()) {
+			super.readFromJar(jarFile);
+			return;
+		}
 		clear();
-		JarFile jar = null;
-		try {
-			jar = new JarFile(jarFile, false);
-			Enumeration<JarEntry> entries = jar.entries();
-			while (entries.hasMoreElements()) {
-				JarEntry entry = entries.nextElement();
-				String name = entry.getName();
-				if (name.endsWith(".class")) {
-					name = name.split("\\.")[0];
-					ClassReader reader = new ClassReader(jar.getInputStream(entry));
-					ClassNode classNode = new ClassNode();
-					reader.accept(classNode, directives);
-					put(name, classNode);
+		jar = new MappedJarFile(jarFile);
+		for (MappedJarFile.Entry entry : jar.entries()) {
+			String name = entry.getName();
+			if (name.endsWith(".class")) {
+				sources.put(getClassName(name), entry);
+			}
+		}
+		System.out.println(sources.size() + " classes indexed from jar. Classes will be loaded on demand. (cache budget: " + (cache.budget() / 1024) + "KiB)");
+	}
+	
+	protected ClassNode readClass(MappedJarFile.Entry entry) throws IOException {
+		ClassReader reader = new ClassReader(entry.readBytes());
+		ClassNode classNode = new ClassNode();
+		reader.accept(classNode, directives);
+		return classNode;
+	}
+	
+	protected String cacheKind() {
+		if (isLazy() || (directives & ClassReader.SKIP_CODE) == 0) return null;
+		return "nodes" + directives;
+	}
+	
+	protected void writeCached(DataOutput out, ClassNode node) throws IOException {
+		out.writeInt(node.version);
+		out.writeInt(node.access);
+		ClassMapCache.writeString(out, node.name);
+		ClassMapCache.writeString(out, node.signature);
+		ClassMapCache.writeString(out, node.superName);
+		writeStrings(out, node.interfaces);
+		ClassMapCache.writeString(out, node.sourceFile);
+		ClassMapCache.writeString(out, node.outerClass);
+		ClassMapCache.writeString(out, node.outerMethod);
+		ClassMapCache.writeString(out, node.outerMethodDesc);
+		out.writeInt(node.innerClasses.size());
+		for (InnerClassNode i : (List<InnerClassNode>)node.innerClasses) {
+			ClassMapCache.writeString(out, i.name);
+			ClassMapCache.writeString(out, i.outerName);
+			ClassMapCache.writeString(out, i.innerName);
+			out.writeInt(i.access);
+		}
+		out.writeInt(node.fields.size());
+		for (FieldNode i : (List<FieldNode>)node.fields) {
+			out.writeInt(i.access);
+			ClassMapCache.writeString(out, i.name);
+			ClassMapCache.writeString(out, i.desc);
+			ClassMapCache.writeString(out, i.signature);
+		}
+		out.writeInt(node.methods.size());
+		for (MethodNode i : (List<MethodNode>)node.methods) {
+			out.writeInt(i.access);
+			ClassMapCache.writeString(out, i.name);
+			ClassMapCache.writeString(out, i.desc);
+			ClassMapCache.writeString(out, i.signature);
+			writeStrings(out, i.exceptions);
+		}
+	}
+	
+	protected ClassNode readCached(DataInput in) throws IOException {
+		ClassNode node = new ClassNode();
+		node.version = in.readInt();
+		node.access = in.readInt();
+		node.name = ClassMapCache.readString(in);
+		node.signature = ClassMapCache.readString(in);
+		node.superName = ClassMapCache.readString(in);
+		node.interfaces = readStrings(in);
+		node.sourceFile = ClassMapCache.readString(in);
+		node.outerClass = ClassMapCache.readString(in);
+		node.outerMethod = ClassMapCache.readString(in);
+		node.outerMethodDesc = ClassMapCache.readString(in);
+		for (int i = in.readInt(); i > 0; i--) {
+			String name = ClassMapCache.readString(in);
+			String outerName = ClassMapCache.readString(in);
+			String innerName = ClassMapCache.readString(in);
+			node.innerClasses.add(new InnerClassNode(name, outerName, innerName, in.readInt()));
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			int access = in.readInt();
+			String name = ClassMapCache.readString(in);
+			String desc = ClassMapCache.readString(in);
+			node.fields.add(new FieldNode(access, name, desc, ClassMapCache.readString(in), null));
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			int access = in.readInt();
+			String name = ClassMapCache.readString(in);
+			String desc = ClassMapCache.readString(in);
+			String signature = ClassMapCache.readString(in);
+			List<String> exceptions = readStrings(in);
+			node.methods.add(new MethodNode(access, name, desc, signature, exceptions.toArray(new String[exceptions.size()])));
+		}
+		return node;
+	}
+	
+	private static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String i : strings) {
+			ClassMapCache.writeString(out, i);
+		}
+	}
+	
+	private static List<String> readStrings(DataInput in) throws IOException {
+		int count = in.readInt();
+		List<String> result = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(ClassMapCache.readString(in));
+		}
+		return result;
+	}
+	
+	public ClassNode get(Object key) {
+		if (!isLazy()) return super.get(key);
+		MappedJarFile.Entry entry = sources.get(key);
+		if (entry == null) return null;
+		synchronized (cache) {
+			ClassNode node = cache.get((String)key);
+			if (node == null) {
+				try {
+					node = readClass(entry);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
+				cache.put((String)key, node, (long)entry.getSize() * NODE_EXPANSION);
 			}
-			System.out.println(size() + " classes successfully loaded from jar");
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (jar != null) jar.close();
+			return node;
+		}
+	}
+	
+	public boolean containsKey(Object key) {
+		return isLazy() ? sources.containsKey(key) : super.containsKey(key);
+	}
+	
+	public ClassNode put(String key, ClassNode value) {
+		if (isLazy()) throw new UnsupportedOperationException("Cannot add classes to a lazily loaded ClassMap");
+		return super.put(key, value);
+	}
+	
+	public ClassNode remove(Object key) {
+		if (isLazy()) throw new UnsupportedOperationException("Cannot remove classes from a lazily loaded ClassMap");
+		return super.remove(key);
+	}
+	
+	public int size() {
+		return isLazy() ? sources.size() : super.size();
+	}
+	
+	public void clear() {
+		if (isLazy()) {
+			sources.clear();
+			cache.clear();
+			close();
+		} else {
+			super.clear();
+		}
+	}
+	
+	/**
+	 * Releases the jar held open by a lazily loaded ClassMap.
+	 */
+	public void close() {
+		if (jar != null) {
+			jar.close();
+			jar = null;
 		}
 	}
 	
-	public Entry<String, ClassNode> getEntry(String key) {
-		for (Entry<String, ClassNode> i : entrySet()) {
-			if (i.getKey().equals(key)) return i;
+	public Set<Entry<String, ClassNode>> entrySet() {
+		if (!isLazy()) return super.entrySet();
+		return new AbstractSet<Entry<String, ClassNode>>() {
+			public Iterator<Entry<String, ClassNode>> iterator() {
+				final Iterator<String> keys = sources.keySet().iterator();
+				return new Iterator<Entry<String, ClassNode>>() {
+					public boolean hasNext() {
+						return keys.hasNext();
+					}
+					
+					public Entry<String, ClassNode> next() {
+						return new LazyEntry(keys.next());
+					}
+					
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			
+			public int size() {
+				return sources.size();
+			}
+		};
+	}
+	
+	/**
+	 * Map entry that only parses its class when its value is read.
+	 */
+	private class LazyEntry implements Entry<String, ClassNode> {
+		private final String key;
+		
+		LazyEntry(String key) {
+			this.key = key;
+		}
+		
+		public String getKey() {
+			return key;
+		}
+		
+		public ClassNode getValue() {
+			return get(key);
+		}
+		
+		public ClassNode setValue(ClassNode value) {
+			throw new UnsupportedOperationException();
 		}
-		return null;
 	}
 }
@@ -0,0 +1,168 @@
+package com.blazeloader.jarjar.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.blazeloader.jarjar.io.MappedJarFile;
+
+/**
+ * On-disk cache of the contents of an {@link AbstractClassMap}.
+ * <p>
+ * A cache file is keyed by the SHA-256 of the jar's contents and by the kind of map it was read
+ * into (including any ClassReader directives). Whenever a jar is cached, older cache files for the
+ * same jar path and kind are deleted, so a changed jar invalidates its old cache automatically.
+ */
+public class ClassMapCache {
+	private static final int MAGIC = 0x4A4A4243; // JJBC
+	private static final int VERSION = 1;
+	
+	private final File file;
+	private final String prefix;
+	private final byte[] hash;
+	
+	/**
+	 * @param directory	Directory cache files are kept in
+	 * @param jarFile	The jar being read
+	 * @param jar		The mapped contents of the jar
+	 * @param kind		Identifies the map type and directives the jar is read with
+	 */
+	public ClassMapCache(File directory, File jarFile, MappedJarFile jar, String kind) throws IOException {
+		hash = sha256(jar);
+		prefix = jarFile.getName() + "-" + Integer.toHexString(jarFile.getCanonicalPath().hashCode()) + "." + kind + ".";
+		file = new File(directory, prefix + hex(hash) + ".cache");
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	private static byte[] sha256(MappedJarFile jar) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(jar.contents());
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	private static String hex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Fills the given map from the cache file.
+	 * Returns false, leaving the map empty, if there is no usable cache for the jar.
+	 */
+	public <T> boolean read(AbstractClassMap<T> map) {
+		if (!file.isFile()) return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+			byte[] stored = new byte[hash.length];
+			in.readFully(stored);
+			if (!Arrays.equals(stored, hash)) return false;
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString(in);
+				map.put(key, map.readCached(in));
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println("Ignoring unreadable class cache " + file + ": " + e);
+			map.clear();
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the given map to the cache file and removes caches of previous versions of the same jar.
+	 */
+	public <T> void write(AbstractClassMap<T> map) {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.out.println("Could not create class cache directory " + directory);
+			return;
+		}
+		File temp = new File(directory, file.getName() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+			out.writeInt(map.size());
+			for (Map.Entry<String, T> i : map.entrySet()) {
+				writeString(out, i.getKey());
+				map.writeCached(out, i.getValue());
+			}
+			out.close();
+			out = null;
+			File[] stale = directory.listFiles();
+			if (stale != null) {
+				for (File i : stale) {
+					if (i.getName().startsWith(prefix) && !i.equals(file) && !i.equals(temp)) i.delete();
+				}
+			}
+			if (file.exists()) file.delete();
+			if (!temp.renameTo(file)) throw new IOException("Could not move " + temp + " to " + file);
+		} catch (IOException e) {
+			System.out.println("Could not write class cache " + file + ": " + e);
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Writes a possibly null string.
+	 */
+	public static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,104 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * A least-recently-used cache of parsed classes bounded by their estimated size on the heap.
+ */
+public class ClassNodeCache {
+	private final long budget;
+	
+	private final LinkedHashMap<String, Cached> nodes = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+	
+	private long used;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * @param budget	Maximum estimated size in bytes of all cached nodes
+	 */
+	public ClassNodeCache(long budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * Gets a cached node, or null if it is not cached. Counts as a hit or a miss.
+	 */
+	public synchronized ClassNode get(String name) {
+		Cached cached = nodes.get(name);
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return cached.node;
+	}
+	
+	/**
+	 * Adds a node to the cache, evicting the least recently used nodes until it fits within the budget.
+	 * The newest node is always kept, even if it alone exceeds the budget.
+	 */
+	public synchronized void put(String name, ClassNode node, long weight) {
+		Cached old = nodes.put(name, new Cached(node, weight));
+		if (old != null) used -= old.weight;
+		used += weight;
+		Iterator<Map.Entry<String, Cached>> iter = nodes.entrySet().iterator();
+		while (used > budget && nodes.size() > 1) {
+			Cached eldest = iter.next().getValue();
+			iter.remove();
+			used -= eldest.weight;
+			evictions++;
+		}
+	}
+	
+	public synchronized void clear() {
+		nodes.clear();
+		used = 0;
+	}
+	
+	public synchronized long hits() {
+		return hits;
+	}
+	
+	public synchronized long misses() {
+		return misses;
+	}
+	
+	public synchronized long evictions() {
+		return evictions;
+	}
+	
+	/**
+	 * Gets the maximum estimated size in bytes of all cached nodes.
+	 */
+	public long budget() {
+		return budget;
+	}
+	
+	/**
+	 * Gets the estimated size in bytes of all nodes currently cached.
+	 */
+	public synchronized long used() {
+		return used;
+	}
+	
+	public synchronized String toString() {
+		return nodes.size() + " classes cached (" + (used / 1024) + "/" + (budget / 1024) + "KiB); " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+	}
+	
+	private static class Cached {
+		private final ClassNode node;
+		private final long weight;
+		
+		Cached(ClassNode node, long weight) {
+			this.node = node;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.blazeloader.jarjar.tree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.blazeloader.jarjar.io.MappedJarFile;
+
+/**
+ * Library jars and class directories that classes in a {@link ClassMap} may extend or implement.
+ * <p>
+ * Nothing is read up front. A jar is only opened, and its directory indexed, the first time a class
+ * is looked up, and individual classes are only parsed (to a {@link ClassSummary}) when they are requested.
+ * Entries are searched in the order they were added.
+ */
+public class ClassPath implements Closeable {
+	
+	private final List<File> entries = new ArrayList<File>();
+	
+	private List<MappedJarFile> jars = null;
+	private boolean searched = false;
+	
+	/**
+	 * Classes looked up so far. Classes that could not be found map to null.
+	 */
+	private final Map<String, ClassSummary> resolved = new HashMap<String, ClassSummary>();
+	
+	public ClassPath(List<File> entries) {
+		for (File i : entries) {
+			add(i);
+		}
+	}
+	
+	/**
+	 * Adds a library jar or class directory to the end of this class path.
+	 */
+	public ClassPath add(File entry) {
+		if (searched) throw new IllegalStateException("Cannot add to a class path that has already been searched");
+		if (entry.exists()) {
+			entries.add(entry);
+		} else {
+			System.out.println("Library " + entry + " does not exist and will be ignored.");
+		}
+		return this;
+	}
+	
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+	
+	/**
+	 * Gets the number of classes that have been found and parsed so far.
+	 */
+	public int loaded() {
+		int result = 0;
+		for (ClassSummary i : resolved.values()) {
+			if (i != null) result++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Gets the summary of a library class. Returns null if no entry on the class path contains it.
+	 */
+	public synchronized ClassSummary get(String className) {
+		if (className == null || isEmpty()) return null;
+		if (resolved.containsKey(className)) return resolved.get(className);
+		searched = true;
+		ClassSummary result = null;
+		try {
+			result = find(className);
+		} catch (IOException e) {
+			System.out.println("Could not read library class " + className + ": " + e);
+		}
+		resolved.put(className, result);
+		return result;
+	}
+	
+	private ClassSummary find(String className) throws IOException {
+		String entryName = className + ".class";
+		int jar = 0;
+		for (File i : entries) {
+			if (i.isDirectory()) {
+				File file = new File(i, entryName.replace('/', File.separatorChar));
+				if (file.isFile()) return ClassSummaryReader.read(Files.readAllBytes(file.toPath()));
+			} else {
+				MappedJarFile.Entry entry = jar(jar++, i).getEntry(entryName);
+				if (entry != null) return ClassSummaryReader.read(entry.read());
+			}
+		}
+		return null;
+	}
+	
+	private MappedJarFile jar(int index, File file) throws IOException {
+		if (jars == null) {
+			jars = new ArrayList<MappedJarFile>();
+			for (File i : entries) {
+				if (!i.isDirectory()) {
+					jars.add(null);
+				}
+			}
+		}
+		MappedJarFile result = jars.get(index);
+		if (result == null) {
+			result = new MappedJarFile(file);
+			jars.set(index, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Releases any library jars that have been opened. Classes already looked up remain available.
+	 */
+	public synchronized void close() {
+		if (jars != null) {
+			for (MappedJarFile i : jars) {
+				if (i != null) i.close();
+			}
+			jars = null;
+		}
+	}
+	
+	public String toString() {
+		return loaded() + " library classes loaded from " + entries.size() + " class path entries";
+	}
+}
@@ -0,0 +1,167 @@
+package com.blazeloader.jarjar.tree;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The parts of a class that are needed to place it in a {@link ClassTree}.
+ * <p>
+ * Summaries are immutable. All names are interned so the name of a class, and every
+ * reference to it as a super class or interface, share a single String instance.
+ */
+public final class ClassSummary {
+	private static final Interner<String> NAMES = Interners.newWeakInterner();
+	
+	public static final String[] NO_INTERFACES = new String[0];
+	
+	private final String name;
+	private final String superName;
+	private final String[] interfaces;
+	
+	private final int access;
+	
+	private final int fields;
+	private final int methods;
+	private final int abstractMethods;
+	
+	/**
+	 * Sorted fingerprints of every method. Empty if the methods were not fingerprinted.
+	 */
+	private final long[] methodFingerprints;
+	
+	public ClassSummary(String name, String superName, String[] interfaces, int access, int fields, int methods, int abstractMethods) {
+		this(name, superName, interfaces, access, fields, methods, abstractMethods, MethodFingerprint.NONE);
+	}
+	
+	/**
+	 * @param methodFingerprints	{@link MethodFingerprint Fingerprints} of the class's methods, sorted
+	 */
+	public ClassSummary(String name, String superName, String[] interfaces, int access, int fields, int methods, int abstractMethods, long[] methodFingerprints) {
+		this.name = intern(name);
+		this.superName = intern(superName);
+		if (interfaces == null || interfaces.length == 0) {
+			this.interfaces = NO_INTERFACES;
+		} else {
+			this.interfaces = new String[interfaces.length];
+			for (int i = 0; i < interfaces.length; i++) {
+				this.interfaces[i] = intern(interfaces[i]);
+			}
+		}
+		this.access = access;
+		this.fields = fields;
+		this.methods = methods;
+		this.abstractMethods = abstractMethods;
+		this.methodFingerprints = methodFingerprints.length == 0 ? MethodFingerprint.NONE : methodFingerprints;
+	}
+	
+	/**
+	 * Creates a summary of an already parsed class.
+	 */
+	public static ClassSummary of(ClassNode node) {
+		int abstractMethods = 0;
+		if (node.methods != null) {
+			for (MethodNode i : (List<MethodNode>)node.methods) {
+				if (Modifier.isAbstract(i.access)) abstractMethods++;
+			}
+		}
+		String[] interfaces = node.interfaces == null ? null : ((List<String>)node.interfaces).toArray(new String[node.interfaces.size()]);
+		return new ClassSummary(node.name, node.superName, interfaces, node.access,
+				node.fields == null ? 0 : node.fields.size(),
+				node.methods == null ? 0 : node.methods.size(), abstractMethods);
+	}
+	
+	/**
+	 * Returns the canonical instance of a class name. Null safe.
+	 */
+	public static String intern(String name) {
+		return name == null ? null : NAMES.intern(name);
+	}
+	
+	/**
+	 * Gets the internal name of this class.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Gets the internal name of this class's super class. Null for java/lang/Object.
+	 */
+	public String getSuperName() {
+		return superName;
+	}
+	
+	/**
+	 * Gets the internal names of the interfaces directly implemented by this class.
+	 */
+	public List<String> getInterfaces() {
+		return Collections.unmodifiableList(Arrays.asList(interfaces));
+	}
+	
+	/**
+	 * Gets the number of interfaces directly implemented by this class.
+	 */
+	public int interfaceCount() {
+		return interfaces.length;
+	}
+	
+	/**
+	 * Gets the internal name of the interface at the given index.
+	 */
+	public String getInterface(int index) {
+		return interfaces[index];
+	}
+	
+	public int getAccess() {
+		return access;
+	}
+	
+	public boolean isAbstract() {
+		return (access & Opcodes.ACC_ABSTRACT) != 0;
+	}
+	
+	/**
+	 * Gets the number of fields declared by this class.
+	 */
+	public int fields() {
+		return fields;
+	}
+	
+	/**
+	 * Gets the number of methods declared by this class.
+	 */
+	public int methods() {
+		return methods;
+	}
+	
+	/**
+	 * Gets the number of abstract methods declared by this class.
+	 */
+	public int abstractMethods() {
+		return abstractMethods;
+	}
+	
+	/**
+	 * Returns true if the methods of this class were fingerprinted when it was read.
+	 * Classes without methods always count as fingerprinted, there being nothing to read.
+	 */
+	public boolean hasMethodFingerprints() {
+		return methodFingerprints.length == methods;
+	}
+	
+	/**
+	 * Gets the sorted fingerprints of this class's methods. The array is shared and must not be modified.
+	 */
+	long[] methodFingerprints() {
+		return methodFingerprints;
+	}
+}
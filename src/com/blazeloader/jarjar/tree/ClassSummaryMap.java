@@ -0,0 +1,96 @@
+package com.blazeloader.jarjar.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import com.blazeloader.jarjar.io.MappedJarFile;
+
+/**
+ * A map of class names to {@link ClassSummary}s.
+ * Classes are read with the {@link ClassSummaryReader} so no ClassNodes are created.
+ */
+public class ClassSummaryMap extends AbstractClassMap<ClassSummary> {
+	
+	private boolean methodFingerprints = false;
+	
+	public ClassSummaryMap() {
+		this(false);
+	}
+	
+	public ClassSummaryMap(boolean parallel) {
+		super(parallel);
+	}
+	
+	/**
+	 * Creates summaries for every class in an already loaded ClassMap, sharing its libraries.
+	 */
+	public static ClassSummaryMap of(ClassMap classes) {
+		ClassSummaryMap result = new ClassSummaryMap();
+		result.setLibraries(classes.getLibraries());
+		for (Map.Entry<String, ClassNode> i : classes.entrySet()) {
+			result.put(i.getKey(), ClassSummary.of(i.getValue()));
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets whether the {@link MethodFingerprint methods} of classes are fingerprinted when they are read.
+	 * Applies to jars read from then on.
+	 */
+	public void setMethodFingerprints(boolean fingerprint) {
+		methodFingerprints = fingerprint;
+	}
+	
+	protected ClassSummary readClass(MappedJarFile.Entry entry) throws IOException {
+		return ClassSummaryReader.read(entry.read(), methodFingerprints);
+	}
+	
+	protected String cacheKind() {
+		return methodFingerprints ? "summary-methods" : "summary";
+	}
+	
+	protected void writeCached(DataOutput out, ClassSummary value) throws IOException {
+		ClassMapCache.writeString(out, value.getName());
+		ClassMapCache.writeString(out, value.getSuperName());
+		out.writeInt(value.interfaceCount());
+		for (int i = 0; i < value.interfaceCount(); i++) {
+			ClassMapCache.writeString(out, value.getInterface(i));
+		}
+		out.writeInt(value.getAccess());
+		out.writeInt(value.fields());
+		out.writeInt(value.methods());
+		out.writeInt(value.abstractMethods());
+		if (methodFingerprints) {
+			long[] fingerprints = value.methodFingerprints();
+			out.writeInt(fingerprints.length);
+			for (long i : fingerprints) {
+				out.writeLong(i);
+			}
+		}
+	}
+	
+	protected ClassSummary readCached(DataInput in) throws IOException {
+		String name = ClassMapCache.readString(in);
+		String superName = ClassMapCache.readString(in);
+		String[] interfaces = new String[in.readInt()];
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaces[i] = ClassMapCache.readString(in);
+		}
+		int access = in.readInt();
+		int fields = in.readInt();
+		int methods = in.readInt();
+		int abstractMethods = in.readInt();
+		long[] fingerprints = MethodFingerprint.NONE;
+		if (methodFingerprints) {
+			fingerprints = new long[in.readInt()];
+			for (int i = 0; i < fingerprints.length; i++) {
+				fingerprints[i] = in.readLong();
+			}
+		}
+		return new ClassSummary(name, superName, interfaces, access, fields, methods, abstractMethods, fingerprints);
+	}
+}
@@ -0,0 +1,198 @@
+package com.blazeloader.jarjar.tree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Reads a {@link ClassSummary} straight from class file bytes.
+ * <p>
+ * Only the constant pool, class header and member tables are walked. Attributes are skipped
+ * over by length without being parsed, except for method code when {@link MethodFingerprint}s
+ * are requested. Instructions are then only decoded as far as needed to count their opcodes.
+ */
+public final class ClassSummaryReader {
+	private static final int MAGIC = 0xCAFEBABE;
+	
+	/**
+	 * The class file, starting at offset 0. Every offset read from is absolute within it.
+	 */
+	private final ByteBuffer buf;
+	
+	/**
+	 * Opcode counts of the method being read. Null unless method fingerprints were requested.
+	 */
+	private final int[] histogram;
+	
+	private int[] constants;
+	
+	private ClassSummaryReader(ByteBuffer buf, boolean fingerprints) {
+		this.buf = buf.slice();
+		histogram = fingerprints ? new int[256] : null;
+	}
+	
+	/**
+	 * Reads a summary of the class file contained in the remaining bytes of the given buffer.
+	 * The buffer's position is not modified.
+	 */
+	public static ClassSummary read(ByteBuffer buf) {
+		return read(buf, false);
+	}
+	
+	/**
+	 * Reads a summary of the class file contained in the remaining bytes of the given buffer.
+	 * The buffer's position is not modified.
+	 * @param fingerprints	True to also fingerprint the class's methods
+	 */
+	public static ClassSummary read(ByteBuffer buf, boolean fingerprints) {
+		return new ClassSummaryReader(buf, fingerprints).read();
+	}
+	
+	public static ClassSummary read(byte[] classFile) {
+		return read(ByteBuffer.wrap(classFile));
+	}
+	
+	private ClassSummary read() {
+		if (buf.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a class file");
+		int pos = readConstantPool(8);
+		
+		int access = u2(pos);
+		String name = className(u2(pos + 2));
+		String superName = className(u2(pos + 4));
+		int interfaceCount = u2(pos + 6);
+		pos += 8;
+		String[] interfaces = interfaceCount == 0 ? ClassSummary.NO_INTERFACES : new String[interfaceCount];
+		for (int i = 0; i < interfaceCount; i++, pos += 2) {
+			interfaces[i] = className(u2(pos));
+		}
+		
+		int fields = u2(pos);
+		pos += 2;
+		for (int i = 0; i < fields; i++) {
+			pos = skipMember(pos);
+		}
+		
+		int methods = u2(pos);
+		int abstractMethods = 0;
+		long[] fingerprints = histogram == null ? MethodFingerprint.NONE : new long[methods];
+		pos += 2;
+		for (int i = 0; i < methods; i++) {
+			if ((u2(pos) & Opcodes.ACC_ABSTRACT) != 0) abstractMethods++;
+			if (histogram != null) fingerprints[i] = fingerprint(pos);
+			pos = skipMember(pos);
+		}
+		
+		return new ClassSummary(name, superName, interfaces, access, fields, methods, abstractMethods, MethodFingerprint.sorted(fingerprints));
+	}
+	
+	/**
+	 * Fingerprints the method_info structure at the given offset from its descriptor and code.
+	 */
+	private long fingerprint(int pos) {
+		String desc = utf8(u2(pos + 4));
+		Arrays.fill(histogram, 0);
+		int attributes = u2(pos + 6);
+		pos += 8;
+		for (int i = 0; i < attributes; i++) {
+			if (utf8Equals(u2(pos), "Code")) {
+				MethodFingerprint.count(buf, pos + 14, buf.getInt(pos + 10), histogram);
+			}
+			pos += 6 + buf.getInt(pos + 2);
+		}
+		return MethodFingerprint.of(MethodFingerprint.arity(desc), MethodFingerprint.returnType(desc), histogram);
+	}
+	
+	/**
+	 * Records the offset of every constant pool entry and returns the offset of the first byte after the pool.
+	 */
+	private int readConstantPool(int pos) {
+		int count = u2(pos);
+		constants = new int[count];
+		pos += 2;
+		for (int i = 1; i < count; i++) {
+			constants[i] = pos;
+			switch (u1(pos)) {
+				case 1: pos += 3 + u2(pos + 1); break;	// Utf8
+				case 3:									// Integer
+				case 4:									// Float
+				case 9:									// Fieldref
+				case 10:								// Methodref
+				case 11:								// InterfaceMethodref
+				case 12:								// NameAndType
+				case 17:								// Dynamic
+				case 18: pos += 5; break;				// InvokeDynamic
+				case 5:									// Long
+				case 6: pos += 9; i++; break;			// Double
+				case 7:									// Class
+				case 8:									// String
+				case 16:								// MethodType
+				case 19:								// Module
+				case 20: pos += 3; break;				// Package
+				case 15: pos += 4; break;				// MethodHandle
+				default: throw new IllegalArgumentException("Unknown constant pool tag " + u1(pos) + " at " + pos);
+			}
+		}
+		return pos;
+	}
+	
+	/**
+	 * Skips over a field_info or method_info structure.
+	 */
+	private int skipMember(int pos) {
+		int attributes = u2(pos + 6);
+		pos += 8;
+		for (int i = 0; i < attributes; i++) {
+			pos += 6 + buf.getInt(pos + 2);
+		}
+		return pos;
+	}
+	
+	private String className(int index) {
+		if (index == 0) return null;
+		return utf8(u2(constants[index] + 1));
+	}
+	
+	/**
+	 * Decodes a CONSTANT_Utf8 entry (modified UTF-8).
+	 */
+	private String utf8(int index) {
+		int pos = constants[index];
+		int length = u2(pos + 1);
+		pos += 3;
+		int end = pos + length;
+		char[] chars = new char[length];
+		int n = 0;
+		while (pos < end) {
+			int b = u1(pos++);
+			if (b < 0x80) {
+				chars[n++] = (char)b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[n++] = (char)(((b & 0x1F) << 6) | (u1(pos++) & 0x3F));
+			} else {
+				chars[n++] = (char)(((b & 0x0F) << 12) | ((u1(pos++) & 0x3F) << 6) | (u1(pos++) & 0x3F));
+			}
+		}
+		return new String(chars, 0, n);
+	}
+	
+	/**
+	 * Checks if a CONSTANT_Utf8 entry holds the given ASCII string without decoding it.
+	 */
+	private boolean utf8Equals(int index, String value) {
+		int pos = constants[index];
+		if (u2(pos + 1) != value.length()) return false;
+		for (int i = 0; i < value.length(); i++) {
+			if (u1(pos + 3 + i) != value.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	private int u1(int pos) {
+		return buf.get(pos) & 0xFF;
+	}
+	
+	private int u2(int pos) {
+		return buf.getShort(pos) & 0xFFFF;
+	}
+}
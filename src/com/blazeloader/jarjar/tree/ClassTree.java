@@ -1,78 +1,134 @@
 package com.blazeloader.jarjar.tree;
 
-import java.lang.reflect.Modifier;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.MethodNode;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 
-import net.acomputerdog.core.java.Patterns;
-
 public class ClassTree implements Tree<ClassTree, String> {
 	
 	private ClassTree parent = null;
 	private ClassTree root = null;
 	
-	private final List<ClassTree> interfaces = new ArrayList<ClassTree>();
-	private final List<ClassTree> inners = new ArrayList<ClassTree>();
-	private final List<ClassTree> children = new ArrayList<ClassTree>();
+	/**
+	 * Shared by every node until it gets its first interface, inner class, or child.
+	 */
+	private static final List<ClassTree> NONE = Collections.emptyList();
+	
+	private List<ClassTree> interfaces = NONE;
+	private List<ClassTree> inners = NONE;
+	private List<ClassTree> children = NONE;
 	
 	private final String className;
 	private final String outer;
 	
-	private final ClassNode element;
+	/**
+	 * Id of this class in the root's symbol table. Assigned once the whole tree has been built.
+	 */
+	private int id = -1;
+	
+	/**
+	 * Names of every class in this tree. Only set on the root.
+	 */
+	private SymbolTable symbols = null;
+	
+	/**
+	 * Every class in this tree by name, kept up to date by {@link #addChild(ClassTree)}. Only set on the root.
+	 */
+	private Map<String, ClassTree> index = null;
+	
+	/**
+	 * Every class in this tree by id. Only set on the root.
+	 */
+	private ClassTree[] byId = null;
+	
+	/**
+	 * Snapshot used to compare classes. Only set on the root, and dropped whenever the tree changes.
+	 */
+	private volatile FrozenClassTree frozen = null;
+	
+	/**
+	 * Summary of the class this node represents. Null for the root and placeholders of classes not in the jar or its libraries.
+	 */
+	private final ClassSummary element;
+	
+	/**
+	 * True for classes that are not part of the jar. Their summary, if any, comes from a library.
+	 */
+	private final boolean external;
 	
 	private final boolean anon;
 	private boolean isinterface = false;
-	private boolean isabstract = false;
 	
-	private final int fields;
-	private final int methods;
+	/**
+	 * Totals over this class and everything below it. Only valid while {@link #dirty} is false.
+	 */
+	private int size;
+	private int depth;
+	private int abstractSize;
+	private boolean dirty = true;
 	
-	private int abstractMethods = 0;
+	/**
+	 * Number of interface implementations leading down to this class. -1 until first requested.
+	 */
+	private int implSize = -1;
 	
 	public ClassTree(ClassMap classMap) {
+		this(ClassSummaryMap.of(classMap));
+	}
+	
+	public ClassTree(ClassSummaryMap classMap) {
 		element = null;
 		className = "java/lang/Object";
 		root = this;
 		anon = false;
 		outer = null;
-		fields = methods = 0;
-		List<Entry<String, ClassNode>> classes = Lists.newArrayList();
-		classes.addAll(classMap.entrySet());
+		external = false;
+		index = new HashMap<String, ClassTree>(classMap.size() * 2);
+		index.put(className, this);
+		PendingClasses classes = new PendingClasses(classMap, className);
 		loadChildren(classes);
 		loadinterfaces(classes, classMap);
 		loadOrphans(classes, classMap);
-		cleanupAnonymouseClasses();
+		cleanupAnonymouseClasses(classMap);
 		initialiseInnerClasses();
+		symbols = new SymbolTable();
+		List<ClassTree> nodes = new ArrayList<ClassTree>(index.size());
+		index.clear();
+		assignIds(nodes);
+		byId = nodes.toArray(new ClassTree[nodes.size()]);
 	}
 	
-	private ClassTree(String name) {
-		className = name;
-		anon = isAnon(name);
-		outer = getOuter(name);
-		element = null;
-		fields = methods = 0;
+	private ClassTree(String key, ClassSummary element) {
+		this(key, element, false);
 	}
 	
-	private ClassTree(String key, ClassNode element) {
-		className = key;
+	private ClassTree(String key, ClassSummary element, boolean external) {
+		className = ClassSummary.intern(key);
 		anon = isAnon(key);
-		outer = getOuter(key);
+		outer = ClassSummary.intern(getOuter(key));
 		this.element = element;
-		fields = element == null || element.fields == null ? 0 : element.fields.size();
-		methods = element == null || element.methods == null ? 0 : element.methods.size();
-		isabstract = (element.access & Opcodes.ACC_ABSTRACT) != 0;
-		for (MethodNode i : (List<MethodNode>)element.methods) {
-			if (Modifier.isAbstract(i.access)) abstractMethods++;
-		}
+		this.external = external;
+		if (external && element != null) isinterface = (element.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+	}
+	
+	private static List<ClassTree> append(List<ClassTree> list, ClassTree item) {
+		if (list == NONE) list = new ArrayList<ClassTree>(2);
+		list.add(item);
+		return list;
 	}
 	
 	public static boolean isAnon(String name) {
@@ -96,37 +152,34 @@ public class ClassTree implements Tree<ClassTree, String> {
 		return name;
 	}
 	
-	private ClassTree loadChildren(List<Entry<String, ClassNode>> classes) {
-		Iterator<Entry<String, ClassNode>> iter = classes.iterator();
-		while (iter.hasNext()) {
-			Entry<String, ClassNode> entry = iter.next();
-			if (classNameEquals(entry.getValue().superName)) {
-				iter.remove();
-				addChild(new ClassTree(entry.getKey(), entry.getValue()));
+	private ClassTree loadChildren(PendingClasses classes) {
+		for (ClassTree i : preOrder()) {
+			for (int index : classes.subclasses(i.className)) {
+				if (classes.take(index)) {
+					i.addChild(new ClassTree(classes.key(index), classes.value(index)));
+				}
 			}
 		}
-		for (ClassTree i : children) {
-			i.loadChildren(classes);
-		}
 		return this;
 	}
 	
 	/**
 	 * Loads all interface classes and initialises unloaded children.
 	 */
-	private void loadinterfaces(List<Entry<String, ClassNode>> classes, ClassMap classMap) {
-		if (element != null && element.interfaces != null) {
-			for (String face : (List<String>)element.interfaces) {
+	private void loadinterfaces(PendingClasses classes, ClassSummaryMap classMap) {
+		if (element != null) {
+			for (int f = 0; f < element.interfaceCount(); f++) {
+				String face = element.getInterface(f);
 				ClassTree iface = root().lookup(face);
 				if (iface == null) {
-					ClassNode node = classMap.get(face);
+					ClassSummary node = classMap.get(face);
 					if (node != null) {
-						classes.remove(classMap.getEntry(face));
+						classes.take(face);
 						iface = root().addChild(new ClassTree(face, node));
 					}
 				}
 				if (iface != null) {
-					interfaces.add(iface);
+					interfaces = append(interfaces, iface);
 					iface.isinterface = true;
 					iface.loadChildren(classes).loadinterfaces(classes, classMap);
 				}
@@ -137,27 +190,23 @@ public class ClassTree implements Tree<ClassTree, String> {
 	/**
 	 * Loads classes that extend a class not included in the active set.
 	 */
-	private void loadOrphans(List<Entry<String, ClassNode>> classes, ClassMap classMap) {
+	private void loadOrphans(PendingClasses classes, ClassSummaryMap classMap) {
 		System.out.println("Loading orphaned classes...");
 		int count = 0;
-		Iterator<Entry<String, ClassNode>> iter = classes.iterator();
-		while (iter.hasNext()) {
-			Entry<String, ClassNode> entry = iter.next();
-			iter.remove();
-			ClassTree orphan = new ClassTree(entry.getKey(), entry.getValue());
+		for (int index = 0; index < classes.size(); index++) {
+			if (!classes.take(index)) continue;
+			ClassTree orphan = new ClassTree(classes.key(index), classes.value(index));
 			orphan.loadChildren(classes);
-			iter = classes.iterator();
-			ClassTree parent = root().lookup(orphan.element.superName);
+			String superName = orphan.element.getSuperName();
+			ClassTree parent = root().lookup(superName);
 			if (parent == null) {
-				ClassNode node = classMap.get(orphan.element.superName);
+				ClassSummary node = classMap.get(superName);
 				if (node != null) {
-					classes.remove(classMap.getEntry(orphan.element.superName));
-					iter = classes.iterator();
-					parent = new ClassTree(orphan.element.superName, node);
+					classes.take(superName);
+					parent = root().addChild(new ClassTree(superName, node));
 				} else {
-					parent = new ClassTree(orphan.element.superName);
+					parent = loadExternal(superName, classMap);
 				}
-				root().addChild(parent);
 			}
 			parent.addChild(orphan);
 			count++;
@@ -165,62 +214,169 @@ public class ClassTree implements Tree<ClassTree, String> {
 		if (count > 0) System.out.println(count + " orphaned classes salvaged into {root}->{unknown/3rd party}->{orphan}");
 	}
 	
+	/**
+	 * Creates a node for a class that is not in the jar.
+	 * Classes found in the libraries are placed under their own super class, loading that too if needed.
+	 * Anything else is added to the root as an empty placeholder.
+	 */
+	private ClassTree loadExternal(String name, ClassSummaryMap classMap) {
+		ClassSummary library = classMap.getLibrary(name);
+		ClassTree parent = root();
+		if (library != null && library.getSuperName() != null) {
+			ClassTree superClass = root().lookup(library.getSuperName());
+			if (superClass == null && !classMap.containsKey(library.getSuperName())) {
+				superClass = loadExternal(library.getSuperName(), classMap);
+			}
+			if (superClass != null) parent = superClass;
+		}
+		return parent.addChild(new ClassTree(name, library, true));
+	}
+	
 	/**
 	 * Picks up classes that extends Object and implement only 1 interface.
 	 */
-	private void cleanupAnonymouseClasses() {
+	private void cleanupAnonymouseClasses(ClassSummaryMap classMap) {
 		List<ClassTree> anons = new ArrayList<ClassTree>();
 		for (ClassTree i : children) {
-			if (i.element == null) continue;
-			List<String> ifaces = i.element.interfaces;
-			if (ifaces != null && ifaces.size() == 1) anons.add(i);
+			if (i.element == null || i.external) continue;
+			if (i.element.interfaceCount() == 1) anons.add(i);
 		}
 		int added = 0;
 		int created = 0;
+		Set<ClassTree> moved = Collections.newSetFromMap(new IdentityHashMap<ClassTree, Boolean>());
 		for (ClassTree i : anons) {
-			List<String> ifaces = i.element.interfaces;
-			ClassTree face = root().lookup(ifaces.get(0));
+			String iface = i.element.getInterface(0);
+			ClassTree face = root().lookup(iface);
 			if (face == null) {
 				created++;
-				face = root().addChild(new ClassTree(ifaces.get(0)));
+				face = loadExternal(iface, classMap);
 			}
 			added++;
+			if (face != this) {
+				// Detached here and removed from the root's children all at once below
+				i.parent = null;
+				moved.add(i);
+			}
 			face.addChild(i);
 		}
+		if (!moved.isEmpty()) {
+			List<ClassTree> remaining = new ArrayList<ClassTree>(children.size());
+			for (ClassTree i : children) {
+				if (!moved.contains(i)) remaining.add(i);
+			}
+			children = remaining;
+			invalidate();
+		}
 		if (created > 0) System.out.println(created + " interfaces classes created at {root}->{interface/3rd party}");
 		if (added > 0) System.out.println(added + " inner classes moved to {root}->{interface/3rd party}->{inner}");
 	}
 	
 	private void initialiseInnerClasses() {
-		for (ClassTree i : children) {
+		for (ClassTree i : preOrder()) {
 			if (i.isInner()) {
-				i.outer().inners.add(i);
+				ClassTree container = i.outer();
+				if (container != null) container.inners = append(container.inners, i);
+			}
+		}
+	}
+	
+	/**
+	 * Numbers every class in pre-order and rebuilds the root's index so the first class with a name is the one found.
+	 */
+	private void assignIds(List<ClassTree> nodes) {
+		for (ClassTree i : preOrder()) {
+			i.dirty = true;
+			i.implSize = -1;
+			i.id = symbols.add(i.className);
+			if (i.id == nodes.size()) {
+				nodes.add(i);
+				index.put(i.className, i);
 			}
-			i.initialiseInnerClasses();
 		}
 	}
 	
 	public ClassTree sort() {
-		Collections.sort(children);
-		Collections.sort(inners);
-		for (ClassTree i : children) {
-			i.sort();
+		if (root() != null) root().frozen = null;
+		for (ClassTree i : preOrder()) {
+			Collections.sort(i.children);
+			Collections.sort(i.inners);
 		}
 		return this;
 	}
 	
 	public ClassTree addChild(ClassTree child) {
 		if (!child.isAnonymous()) {
-			children.add(child);
+			children = append(children, child);
 			if (child.parent != null) {
 				child.parent.children.remove(child);
+				child.parent.invalidate();
 			}
 			child.parent = this;
-			child.root = root();
+			if (child.root != root()) child.setRoot(root());
+			if (root() != null) root().frozen = null;
+			invalidate();
 		}
 		return child;
 	}
 	
+	/**
+	 * Marks the totals of this class and all of its parents as needing to be recalculated.
+	 * A class is never clean while one of its descendants is dirty, so this stops at the first one already marked.
+	 */
+	private void invalidate() {
+		for (ClassTree i = this; i != null && !i.dirty; i = i.parent) {
+			i.dirty = true;
+		}
+	}
+	
+	/**
+	 * Recalculates the totals of this class, and any dirty classes below it.
+	 */
+	private void aggregate() {
+		if (!dirty) return;
+		List<ClassTree> pending = new ArrayList<ClassTree>();
+		pending.add(this);
+		for (int n = 0; n < pending.size(); n++) {
+			for (ClassTree i : pending.get(n).children) {
+				if (i.dirty) pending.add(i);
+			}
+		}
+		// Every class comes after its parent, so going backwards totals children first
+		for (int n = pending.size() - 1; n >= 0; n--) {
+			pending.get(n).total();
+		}
+	}
+	
+	/**
+	 * Recalculates the totals of this class from those of its children, which must be up to date.
+	 */
+	private void total() {
+		int size = 1;
+		int depth = 0;
+		int abstractSize = isAbstract() ? 1 : 0;
+		for (ClassTree i : children) {
+			size += i.size;
+			depth = Math.max(depth, i.depth);
+			abstractSize += i.abstractSize;
+		}
+		this.size = size;
+		this.depth = depth + 1;
+		this.abstractSize = abstractSize;
+		dirty = false;
+	}
+	
+	/**
+	 * Sets the root of this class and everything below it and moves them to its index.
+	 * Orphans are built up before they are attached to the tree.
+	 */
+	private void setRoot(ClassTree root) {
+		for (ClassTree i : preOrder()) {
+			if (i.root != null && i.root.index.get(i.className) == i) i.root.index.remove(i.className);
+			i.root = root;
+			if (root != null && !root.index.containsKey(i.className)) root.index.put(i.className, i);
+		}
+	}
+	
 	public List<ClassTree> children() {
 		return children;
 	}
@@ -232,18 +388,45 @@ public class ClassTree implements Tree<ClassTree, String> {
 		return interfaces.size();
 	}
 	
+	List<ClassTree> interfaceList() {
+		return interfaces;
+	}
+	
 	/**
 	 * Gets the number of fields on this class.
 	 */
 	public int fields() {
-		return fields;
+		return element == null ? 0 : element.fields();
 	}
 	
 	/**
 	 * Gets the number of methods on this class.
 	 */
 	public int methods() {
-		return methods;
+		return element == null ? 0 : element.methods();
+	}
+	
+	/**
+	 * Gets the number of abstract methods on this class.
+	 */
+	public int abstractMethods() {
+		return element == null ? 0 : element.abstractMethods();
+	}
+	
+	/**
+	 * Gets the summary of the class this node was built from.
+	 * Returns null for the root and for placeholders of classes not included in the jar.
+	 */
+	public ClassSummary summary() {
+		return element;
+	}
+	
+	/**
+	 * Returns true if this class is not part of the jar this tree was built from.
+	 * External classes have a summary only if they were found in the jar's libraries.
+	 */
+	public boolean isExternal() {
+		return external;
 	}
 	
 	/**
@@ -272,7 +455,7 @@ public class ClassTree implements Tree<ClassTree, String> {
 	 * Returns true if this class is abstract. (Interfaces are also abstract)
 	 */
 	public boolean isAbstract() {
-		return isabstract || isInterface();
+		return (element != null && element.isAbstract()) || isInterface();
 	}
 	
 	/**
@@ -304,143 +487,116 @@ public class ClassTree implements Tree<ClassTree, String> {
 		return className;
 	}
 	
-	public ClassTree lookup(String className) {
-		if (this.className.equals(className)) return this;
-		ClassTree result = null;
-		for (ClassTree i : children) {
-			result = i.lookup(className);
-			if (result != null) return result;
-		}
-		return result;
+	/**
+	 * Gets the id of this class's name in the tree's {@link #symbols() symbol table}.
+	 */
+	public int getId() {
+		return id;
 	}
 	
 	/**
-	 * Calculates the similarity between two trees.
+	 * Gets the symbol table holding the names of every class in this tree.
 	 */
-	public double similarity(ClassTree other) {
-		return 100 * (similarityInt(other)/(Math.max(size() + implSize(), other.size() + other.implSize())));
+	public SymbolTable symbols() {
+		return root().symbols;
 	}
 	
-	/*private boolean compareMethodBodies(MethodNode one, MethodNode two) {
-		int instructionMatches = 0;
-		for (int i = 0; i < one.instructions.size() && i < two.instructions.size(); i++) {
-			if (one.instructions.get(i).equals(two.instructions.get(i))) {
-				instructionMatches ++;
-			}
-		}
-		if (instructionMatches >= one.instructions.size() * 0.6f) return true;
-		int instructionFrequencyMatches = 0;
-		Map<Integer, Integer> instructionFrequenciesOne = getFrequencyMap(one);
-		Map<Integer, Integer> instructionFrequenciesTwo = getFrequencyMap(two);
-		for (Integer i : instructionFrequenciesOne.values()) {
-			if (instructionFrequenciesTwo.containsKey(i)) {
-				if (instructionFrequenciesTwo.get(i) == instructionFrequenciesOne.get(i)) {
-					instructionFrequencyMatches ++;
-				}
-			}
-		}
-		if (instructionFrequencyMatches >= instructionFrequenciesOne.size() * 0.6f) return true;
-		return false;
+	/**
+	 * Looks up a class in this tree by name.
+	 * Only this class and its descendants are searched.
+	 */
+	public ClassTree lookup(String className) {
+		if (root() == null) return null;
+		return contains(root().index.get(className));
 	}
 	
-	private Map<Integer, Integer> getFrequencyMap(MethodNode node) {
-		Map<Integer, Integer> result = new HashMap<Integer, Integer>();
-		for (int i = 0; i < node.instructions.size(); i++) {
-			int op = node.instructions.get(i).getOpcode();
-			if (result.containsKey(op)) {
-				result.put(op, result.get(op) + 1);
-			} else {
-				result.put(op, 1);
-			}
-		}
-		return result;
+	/**
+	 * Looks up a class in this tree by its id.
+	 * Only this class and its descendants are searched.
+	 */
+	public ClassTree lookup(int id) {
+		ClassTree[] byId = root().byId;
+		if (byId == null || id < 0 || id >= byId.length) return null;
+		return contains(byId[id]);
 	}
 	
-	private double matchMethods(ClassTree other) {
-		if (element == null || other.element == null) return 0;
-		int total = Math.max(methods(), other.methods());
-		if (total == 0) return 0;
-		float matched = 0;
-		for (MethodNode m : (List<MethodNode>)element.methods) {
-			int mCount = Obfuscator.splitDescriptor(m.desc.split("\\)")[0]).size();
-			for (MethodNode n : (List<MethodNode>)other.element.methods) {
-				int nCount = Obfuscator.splitDescriptor(n.desc.split("\\)")[0]).size();
-				if (mCount == nCount) {
-					//if (compareMethodBodies(m, n)) {
-						matched++;
-					//}
-				}
-			}
-		}
-		return matched/total;
-	}*/
-	
-	private boolean matchNesting(ClassTree other) {
-		ClassTree one = this;
-		while (one != null && other != null) {
-			if (one.isInner() != other.isInner()) return false;
-			one = one.outer();
-			other = other.outer();
+	/**
+	 * Returns the given class if it is this one or one of its descendants, otherwise null.
+	 */
+	private ClassTree contains(ClassTree node) {
+		if (this == root()) return node;
+		for (ClassTree i = node; i != null; i = i.parent) {
+			if (i == this) return node;
 		}
-		return true;
+		return null;
 	}
 	
-	private double matchAttributes(ClassTree other) {
-		double result = 0;
-		result += similarity(fields(), other.fields());
-		result += similarity(methods(), other.methods());
-		result += similarity(abstractMethods, other.abstractMethods);
-		result += similarity(interfaces(), other.interfaces());
-		if (matchNesting(other)) result ++;
-		if (isAbstract() == other.isAbstract()) result ++;
-		return result/6;
-	}
-	
-	private float similarity(int one, int two) {
-		if (one == two) return 1;
-		one = Math.abs(one);
-		two = Math.abs(two);
-		return (float)Math.min(one, two) / (float)Math.max(one, two);
+	/**
+	 * Calculates the similarity between two trees, comparing the {@link SimilarityPipeline#STANDARD standard} features.
+	 */
+	public double similarity(ClassTree other) {
+		return similarity(other, SimilarityPipeline.STANDARD);
 	}
 	
-	private double similarityInt(ClassTree other) {
-		if (isInterface() != other.isInterface()) return 0;
-		if (isInner() != other.isInner()) return 0;
-		double result = matchAttributes(other) + reverseSimilarity(other);
-		if (children.size() == 0 && other.children.size() == 0) {
-			return result;
-		}
-		for (int i = 0; i < children.size() && i < other.children.size(); i++) {
-			result += children.get(i).similarityInt(other.children.get(i));
-		}
-		return result;
+	/**
+	 * Calculates the similarity between two trees, comparing the features of the given pipeline.
+	 */
+	public double similarity(ClassTree other, SimilarityPipeline scorer) {
+		return freeze().similarity(id, other.freeze(), other.id, scorer);
 	}
 	
-	private double reverseSimilarity(ClassTree other) {
-		double result = Math.min(interfaces(), other.interfaces());
-		for (int i = 0; i < interfaces() && i < other.interfaces(); i++) {
-			result += interfaces.get(i).reverseSimilarity(other.interfaces.get(i));
+	/**
+	 * Gets an array-backed snapshot of the tree this class belongs to.
+	 * The same snapshot is returned until a class is added or moved, or the tree is sorted.
+	 */
+	public FrozenClassTree freeze() {
+		ClassTree root = root();
+		FrozenClassTree result = root.frozen;
+		if (result == null) {
+			synchronized (root) {
+				result = root.frozen;
+				if (result == null) {
+					if (root.byId == null) throw new IllegalStateException("Cannot freeze a tree that is still being built");
+					root.frozen = result = new FrozenClassTree(root.byId);
+				}
+			}
 		}
 		return result;
 	}
 	
 	public int size() {
-		int size = 1;
-		for (ClassTree i : children) {
-			size += i.size();
-		}
+		aggregate();
 		return size;
 	}
 	
+	/**
+	 * Gets the number of levels in the tree below and including this one.
+	 */
+	public int depth() {
+		aggregate();
+		return depth;
+	}
+	
+	/**
+	 * Gets the number of abstract classes and interfaces below and including this one.
+	 */
+	public int abstractSize() {
+		aggregate();
+		return abstractSize;
+	}
+	
 	/**
 	 * Gets the total number of interface implementations leading down the tree to this one.
 	 */
 	public int implSize() {
-		int size = interfaces.size();
-		for (ClassTree i : interfaces) {
-			size += i.implSize();
+		if (implSize == -1) {
+			int size = interfaces.size();
+			for (ClassTree i : interfaces) {
+				size += i.implSize();
+			}
+			implSize = size;
 		}
-		return size;
+		return implSize;
 	}
 	
 	/**
@@ -455,18 +611,37 @@ public class ClassTree implements Tree<ClassTree, String> {
 		return className + " { fields: " + fields() + "; methods: " + methods() + "; interfaces: " + interfaces() + " }";
 	}
 	
-	public String toString() {
-		return toString("");
+	public void accept(TreeVisitor<ClassTree> visitor) {
+		TreeTraversal.accept(this, visitor);
 	}
 	
-	private String toString(String indent) {
-		String result = indent + description();
-		result += Patterns.LINE_SEPARATOR;
-		indent += "\t";
-		for (ClassTree i : children) {
-			result += i.toString(indent);
+	public Iterable<ClassTree> preOrder() {
+		return TreeTraversal.preOrder(this);
+	}
+	
+	public Iterable<ClassTree> postOrder() {
+		return TreeTraversal.postOrder(this);
+	}
+	
+	public Stream<ClassTree> stream() {
+		return TreeTraversal.stream(this);
+	}
+	
+	/**
+	 * Creates a renderer that writes class trees in the same format as {@link #toString()}.
+	 */
+	public static TreeRenderer<ClassTree> renderer(Appendable out) {
+		return new TreeRenderer<ClassTree>(out);
+	}
+	
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		try {
+			renderer(result).render(this);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		return result;
+		return result.toString();
 	}
 	
 	@Override
@@ -480,15 +655,10 @@ public class ClassTree implements Tree<ClassTree, String> {
 	
 	public List<String> keySet() {
 		List<String> result = new ArrayList<String>();
-		buildKeySet(result);
-		return result;
-	}
-	
-	private void buildKeySet(List<String> keyset) {
-		keyset.add(className);
-		for (ClassTree i : children) {
-			i.buildKeySet(keyset);
+		for (ClassTree i : preOrder()) {
+			result.add(i.className);
 		}
+		return result;
 	}
 	
 	public boolean equals(Object o) {
@@ -496,4 +666,67 @@ public class ClassTree implements Tree<ClassTree, String> {
 		if (o instanceof ClassTree) return getName().equals(((ClassTree)o).getName());
 		return false;
 	}
+	
+	/**
+	 * The classes of a jar that have not been placed in a tree yet, in the order given by the map,
+	 * indexed by name and by the name of their super class.
+	 */
+	private static final class PendingClasses {
+		private final List<Entry<String, ClassSummary>> classes;
+		private final boolean[] taken;
+		
+		private final Map<String, Integer> byName;
+		private final ListMultimap<String, Integer> bySuper = ArrayListMultimap.create();
+		
+		/**
+		 * @param rootName	Name of the tree's root. Classes without a super class are filed under it.
+		 */
+		PendingClasses(ClassSummaryMap classMap, String rootName) {
+			classes = Lists.newArrayList(classMap.entrySet());
+			taken = new boolean[classes.size()];
+			byName = new HashMap<String, Integer>(classes.size() * 2);
+			for (int i = 0; i < classes.size(); i++) {
+				Entry<String, ClassSummary> entry = classes.get(i);
+				byName.put(entry.getKey(), i);
+				String superName = entry.getValue().getSuperName();
+				bySuper.put(superName == null ? rootName : superName, i);
+			}
+		}
+		
+		public int size() {
+			return classes.size();
+		}
+		
+		public String key(int index) {
+			return classes.get(index).getKey();
+		}
+		
+		public ClassSummary value(int index) {
+			return classes.get(index).getValue();
+		}
+		
+		/**
+		 * Gets the indices of every class that directly extends the given one, in order.
+		 */
+		public List<Integer> subclasses(String name) {
+			return bySuper.get(name);
+		}
+		
+		/**
+		 * Marks a class as placed. Returns false if it already was.
+		 */
+		public boolean take(int index) {
+			if (taken[index]) return false;
+			taken[index] = true;
+			return true;
+		}
+		
+		/**
+		 * Marks a class as placed by name, if it is pending.
+		 */
+		public boolean take(String name) {
+			Integer index = byName.get(name);
+			return index != null && take(index);
+		}
+	}
 }
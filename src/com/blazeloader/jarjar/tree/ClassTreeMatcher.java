@@ -1,9 +1,23 @@
 package com.blazeloader.jarjar.tree;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -11,8 +25,6 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
-import net.acomputerdog.core.java.Patterns;
-
 public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	private ClassTreeMatcher root;
 	private ClassTreeMatcher parent;
@@ -22,23 +34,115 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	
 	private double similarity;
 	
-	private List<ClassTreeMatcher> children = new ArrayList<ClassTreeMatcher>();
-	private List<String> unmatchedClasses;
-	private List<String> unassignedClasses;
+	/**
+	 * Scores how alike classes are. Only kept by the root.
+	 */
+	private SimilarityPipeline scorer;
+	
+	/**
+	 * Shared by every matcher until it gets its first child.
+	 */
+	private static final List<ClassTreeMatcher> NONE = Collections.emptyList();
+	
+	/**
+	 * Assigns the classes of each sibling group, or null to assign them greedily as they are compared.
+	 */
+	private static AssignmentSolver solver = null;
+	
+	/**
+	 * True to match the subtrees below each pair of classes in parallel when a {@link #solver} is set.
+	 */
+	private static boolean parallel = false;
+	
+	/**
+	 * Most pairs a sibling group can have to be given to the {@link #solver}. Larger groups, usually the classes
+	 * directly below java/lang/Object, would need too large a matrix of scores and take the solver too long, so
+	 * their classes take the most similar class still free in turn instead.
+	 */
+	private static final int MAX_SOLVED_PAIRS = 1 << 22;
+	
+	private List<ClassTreeMatcher> children = NONE;
+	
+	/**
+	 * Names of the classes not claimed by any matcher, in the order they were found. Only kept by the root.
+	 */
+	private Set<String> unmatchedClasses;
+	private Set<String> unassignedClasses;
+	
+	/**
+	 * Every matcher in the tree by the id of its source and of its destination class. Only kept by the root.
+	 */
+	private Index sources;
+	private Index destinations;
+	
+	/**
+	 * Totals over this matcher and everything below it. Only valid while {@link #dirty} is false.
+	 */
+	private int size;
+	private double total;
+	private boolean dirty = true;
+	
+	/**
+	 * Sets how the classes of each group of siblings are paired up in matchers created from then on.
+	 * With no solver, the default, each class takes the most similar class still free, or one taken by a less similar class, as it is compared.
+	 * With a solver every pair in the group is scored first and the solver chooses the pairs.
+	 */
+	public static void setAssignmentSolver(AssignmentSolver assignment) {
+		solver = assignment;
+	}
+	
+	public static AssignmentSolver getAssignmentSolver() {
+		return solver;
+	}
+	
+	/**
+	 * Sets whether matchers created from then on match subtrees in parallel, on the common fork-join pool.
+	 * <p>
+	 * Only takes effect with an {@link #setAssignmentSolver(AssignmentSolver) assignment solver}. A solver only
+	 * pairs a group of siblings with the children of the class their parent was matched to, and nothing else
+	 * can claim those, so every group is matched the same whichever order they run in and the result is the
+	 * same as matching sequentially. Greedy matching can take classes from other groups, so it always runs sequentially.
+	 */
+	public static void setParallel(boolean value) {
+		parallel = value;
+	}
+	
+	public static boolean isParallel() {
+		return parallel;
+	}
 	
 	public static ClassTreeMatcher loadFromJson(ClassTree from, ClassTree to, String json) {
+		return loadFromJson(from, to, json, SimilarityPipeline.STANDARD);
+	}
+	
+	/**
+	 * Loads a matcher saved with {@link #writeToJson()}.
+	 * @param scorer	Scores classes matched from then on with {@link #define(ClassTree, ClassTree)}
+	 */
+	public static ClassTreeMatcher loadFromJson(ClassTree from, ClassTree to, String json, SimilarityPipeline scorer) {
 		JsonParser parser = new JsonParser();
-		return new ClassTreeMatcher(from, to, parser.parse(json));
+		return new ClassTreeMatcher(from, to, parser.parse(json), scorer);
 	}
 	
 	/**
-	 * Creates a new class tree matcher with itself as the root.
+	 * Creates a new class tree matcher with itself as the root, comparing the {@link SimilarityPipeline#STANDARD standard} features of classes.
 	 * @param one	Class tree to map from
 	 * @param two	Class tree to map to
 	 */
 	public ClassTreeMatcher(ClassTree one, ClassTree two) {
+		this(one, two, SimilarityPipeline.STANDARD);
+	}
+	
+	/**
+	 * Creates a new class tree matcher with itself as the root.
+	 * @param one		Class tree to map from
+	 * @param two		Class tree to map to
+	 * @param scorer	Scores how alike classes are
+	 */
+	public ClassTreeMatcher(ClassTree one, ClassTree two, SimilarityPipeline scorer) {
 		this(100, one, two);
-		root = this;
+		this.scorer = scorer;
+		makeRoot();
 		initialise(null);
 	}
 	
@@ -48,11 +152,12 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 		to = two;
 	}
 	
-	private ClassTreeMatcher(ClassTree one, ClassTree two, JsonElement json) {
+	private ClassTreeMatcher(ClassTree one, ClassTree two, JsonElement json, SimilarityPipeline scorer) {
 		this(100, one, two);
-		root = this;
-		unassignedClasses = new ArrayList<String>();
-		unmatchedClasses = new ArrayList<String>();
+		this.scorer = scorer;
+		makeRoot();
+		unassignedClasses = new LinkedHashSet<String>();
+		unmatchedClasses = new LinkedHashSet<String>();
 		loadChildrenFromJson(json);
 		JsonObject object = json.getAsJsonObject();
 		if (object.has("unassigned")) {
@@ -80,6 +185,14 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 		loadChildrenFromJson(json);
 	}
 	
+	private void makeRoot() {
+		root = this;
+		sources = new Index();
+		destinations = new Index();
+		sources.add(from, this);
+		destinations.add(to, this);
+	}
+	
 	private void loadChildrenFromJson(JsonElement json) {
 		JsonObject object = json.getAsJsonObject();
 		if (object.has("similarity")) similarity = object.get("similarity").getAsDouble();
@@ -92,10 +205,10 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	}
 	
 	private ClassTreeMatcher initialise(ClassTreeMatcher root) {
-		List<String> taken = new ArrayList<String>();
-		taken.add(to.getName());
-		List<String> matched = new ArrayList<String>();
-		matched.add(from.getName());
+		SymbolSet taken = new SymbolSet();
+		taken.add(to.getId());
+		SymbolSet matched = new SymbolSet();
+		matched.add(from.getId());
 		matchChilds(matched, taken);
 		matchInnerClasses(matched, taken);
 		int lostClasses = from.size() - matched.size();
@@ -151,127 +264,180 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 		return element;
 	}
 	
-	private void recordUnmatchedClasses(ClassTreeMatcher sender, List<String> matched, List<String> taken) {
-		if (unmatchedClasses == null) unmatchedClasses = new ArrayList<String>();
-		if (unassignedClasses == null) unassignedClasses = new ArrayList<String>();
-		List<String> froms = sender.from.keySet();
-		froms.removeAll(matched);
-		unmatchedClasses.removeAll(matched);
-		for (String i : froms) {
-			if (!unmatchedClasses.contains(i)) {
-				unmatchedClasses.add(i);
-			}
+	private void recordUnmatchedClasses(ClassTreeMatcher sender, SymbolSet matched, SymbolSet taken) {
+		if (unmatchedClasses == null) unmatchedClasses = new LinkedHashSet<String>();
+		if (unassignedClasses == null) unassignedClasses = new LinkedHashSet<String>();
+		recordUnclaimed(unmatchedClasses, sender.from, matched);
+		recordUnclaimed(unassignedClasses, sender.to, taken);
+	}
+	
+	/**
+	 * Removes claimed classes from a set of names and adds every unclaimed class from the given tree.
+	 */
+	private static void recordUnclaimed(Set<String> unclaimed, ClassTree tree, SymbolSet claimed) {
+		SymbolTable symbols = tree.symbols();
+		Iterator<String> iter = unclaimed.iterator();
+		while (iter.hasNext()) {
+			if (claimed.contains(symbols.find(iter.next()))) iter.remove();
 		}
-		List<String> tos = sender.to.keySet();
-		tos.removeAll(taken);
-		unassignedClasses.removeAll(taken);
-		for (String i : tos) {
-			if (!unassignedClasses.contains(i)) {
-				unassignedClasses.add(i);
-			}
+		for (String i : tree.keySet()) {
+			if (!claimed.contains(symbols.find(i))) unclaimed.add(i);
 		}
 	}
 	
-	private void matchLostClasses(List<String> matched, List<String> taken) {
-		List<ClassTreeMatcher> lostChilds = new ArrayList<ClassTreeMatcher>();
-		List<String> froms = from.keySet();
-		froms.removeAll(matched);
-		List<String> tos = to.keySet();
-		tos.removeAll(taken);
-		Iterator<String> iter = froms.iterator();
-		while (froms.size() > 0) {
-			int removals = 0;
-			while (iter.hasNext()) {
-				String i = iter.next();
-				ClassTree f = from.lookup(i);
-				if (f.isInner()) continue;
-				ClassTreeMatcher parent = root().lookup(f.parent().getName());
-				if (parent != null) {
-					ClassTree lastTree = null;
-					double lastSim = -1;
-					for (String j : tos) {
-						ClassTree t = to.lookup(j);
-						if (parent.after() != t.parent()) continue;
-						if (t.isInner()) continue;
-						double sim = f.similarity(t);
-						if (sim >= lastSim) {
-							lastSim = sim;
-							lastTree = t;
-						}
+	private void matchLostClasses(SymbolSet matched, SymbolSet taken) {
+		matchLost(matched, taken, false);
+	}
+	
+	private void matchLostInnerClasses(SymbolSet matched, SymbolSet taken) {
+		matchLost(matched, taken, true);
+	}
+	
+	/**
+	 * Matches unclaimed classes to the unclaimed children of whatever their parent was matched to, in rounds until nothing changes.
+	 * <p>
+	 * Unclaimed destination classes are grouped by parent, so each class is only compared against its real candidates.
+	 * A class whose parent has not been matched waits until it is, and only then is it tried again. Classes are
+	 * tried in the order of the source tree's key set, and a class whose parent is matched during a round is tried
+	 * in that round if it comes later, or in the next if it came earlier, the same as passing over every class again.
+	 * @param inner	True to match inner classes, false for the rest
+	 */
+	private void matchLost(SymbolSet matched, SymbolSet taken, boolean inner) {
+		List<ClassTree> froms = unclaimed(from, matched);
+		Map<ClassTree, List<ClassTree>> byParent = new IdentityHashMap<ClassTree, List<ClassTree>>();
+		for (ClassTree t : unclaimed(to, taken)) {
+			if (t.isInner() != inner) continue;
+			List<ClassTree> siblings = byParent.get(t.parent());
+			if (siblings == null) byParent.put(t.parent(), siblings = new ArrayList<ClassTree>());
+			siblings.add(t);
+		}
+		FrozenClassTree before = from.freeze();
+		FrozenClassTree after = to.freeze();
+		SimilarityPipeline scorer = root().scorer;
+		Map<Integer, List<Integer>> waiting = new HashMap<Integer, List<Integer>>();
+		PriorityQueue<Integer> round = new PriorityQueue<Integer>();
+		for (int n = 0; n < froms.size(); n++) {
+			if (froms.get(n).isInner() == inner) round.add(n);
+		}
+		while (!round.isEmpty()) {
+			PriorityQueue<Integer> next = new PriorityQueue<Integer>();
+			while (!round.isEmpty()) {
+				int position = round.poll();
+				ClassTree f = froms.get(position);
+				if (matched.contains(f.getId())) continue;
+				ClassTreeMatcher parent = root().lookup(f.parent().getId());
+				if (parent == null) {
+					List<Integer> dependents = waiting.get(f.parent().getId());
+					if (dependents == null) waiting.put(f.parent().getId(), dependents = new ArrayList<Integer>());
+					dependents.add(position);
+					continue;
+				}
+				List<ClassTree> group = new ArrayList<ClassTree>();
+				List<ClassTree> siblings = byParent.get(parent.after());
+				if (siblings != null) {
+					for (ClassTree t : siblings) {
+						if (!taken.contains(t.getId())) group.add(t);
 					}
-					if (lastTree != null) {
-						iter.remove();
-						tos.remove(lastTree.getName());
-						taken.add(lastTree.getName());
-						matched.add(i);
-						removals++;
-						lostChilds.add(parent.addChild(new ClassTreeMatcher(lastSim, f, lastTree)));
+				}
+				ClassTree lastTree = null;
+				double lastSim = -1;
+				int[] candidates = ids(group);
+				int[] positions = new int[candidates.length];
+				int[] selected = new int[candidates.length];
+				int count = new CandidateIndex(after, candidates).find(before, f.getId(), positions, selected);
+				for (int k = 0; k < count; k++) {
+					ClassTree t = group.get(positions[k]);
+					double sim = before.similarity(f.getId(), after, selected[k], lastSim, scorer);
+					if (sim >= lastSim) {
+						lastSim = sim;
+						lastTree = t;
 					}
 				}
-			}
-			if (removals == 0) break;
-		}
-	}
-	
-	private void matchLostInnerClasses(List<String> matched, List<String> taken) {
-		List<ClassTreeMatcher> lostChilds = new ArrayList<ClassTreeMatcher>();
-		List<String> froms = from.keySet();
-		froms.removeAll(matched);
-		List<String> tos = to.keySet();
-		tos.removeAll(taken);
-		Iterator<String> iter = froms.iterator();
-		while (froms.size() > 0) {
-			int removals = 0;
-			while (iter.hasNext()) {
-				String i = iter.next();
-				ClassTree f = from.lookup(i);
-				if (!f.isInner()) continue;
-				ClassTreeMatcher parent = root().lookup(f.parent().getName());
-				if (parent != null) {
-					ClassTree lastTree = null;
-					double lastSim = -1;
-					for (String j : tos) {
-						ClassTree t = to.lookup(j);
-						if (parent.after() != t.parent()) continue;
-						if (!t.isInner()) continue;
-						double sim = f.similarity(t);
-						if (sim >= lastSim) {
-							lastSim = sim;
-							lastTree = t;
+				if (lastTree != null) {
+					taken.add(lastTree.getId());
+					matched.add(f.getId());
+					parent.addChild(new ClassTreeMatcher(lastSim, f, lastTree));
+					List<Integer> dependents = waiting.remove(f.getId());
+					if (dependents != null) {
+						for (int i : dependents) {
+							(i > position ? round : next).add(i);
 						}
 					}
-					if (lastTree != null) {
-						iter.remove();
-						tos.remove(lastTree.getName());
-						taken.add(lastTree.getName());
-						matched.add(i);
-						removals++;
-						lostChilds.add(parent.addChild(new ClassTreeMatcher(lastSim, f, lastTree)));
-					}
 				}
 			}
-			if (removals == 0) break;
+			round = next;
+		}
+	}
+	
+	/**
+	 * Gets the classes in a tree, in the order of its key set, that have not been claimed.
+	 * Classes are resolved by name so duplicate names resolve to the same class.
+	 */
+	private static List<ClassTree> unclaimed(ClassTree tree, SymbolSet claimed) {
+		List<ClassTree> result = new ArrayList<ClassTree>();
+		for (String i : tree.keySet()) {
+			ClassTree node = tree.lookup(i);
+			if (!claimed.contains(node.getId())) result.add(node);
 		}
+		return result;
 	}
 	
 	/**
-	 * Recursively matches the nodes in this Matcher's two trees by similarity.
+	 * Matches the nodes in this Matcher's two trees by similarity, working down from this one.
 	 */
-	private void matchChilds(List<String> matched, List<String> taken) {
+	private void matchChilds(SymbolSet matched, SymbolSet taken) {
+		if (parallel && solver != null) {
+			ForkJoinPool.commonPool().invoke(new MatchTask(null, this, matched, taken, false));
+			return;
+		}
+		for (ClassTreeMatcher i : preOrder()) {
+			i.matchClasses(matched, taken);
+		}
+	}
+	
+	/**
+	 * Matches the children of this Matcher's classes by similarity.
+	 */
+	private void matchClasses(SymbolSet matched, SymbolSet taken) {
 		List<ClassTree> froms = new ArrayList<ClassTree>();
 		froms.addAll(from.children());
 		List<ClassTree> tos = to.children();
+		if (solver != null) {
+			List<ClassTree> rows = new ArrayList<ClassTree>();
+			for (ClassTree i : froms) {
+				if (i.isInner() || matched.contains(i.getId())) continue;
+				if (i.getName().indexOf('/') != -1) {
+					ClassTree other = to.lookup(i.getName());
+					if (other != null) {
+						matched.add(i.getId());
+						taken.add(other.getId());
+						addChild(new ClassTreeMatcher(100, i, other));
+						continue;
+					}
+				}
+				rows.add(i);
+			}
+			assign(rows, tos, matched, taken);
+			return;
+		}
+		FrozenClassTree before = from.freeze();
+		FrozenClassTree after = to.freeze();
+		SimilarityPipeline scorer = root().scorer;
+		int[] candidates = ids(tos);
+		CandidateIndex index = new CandidateIndex(after, candidates);
+		int[] positions = new int[candidates.length];
+		int[] group = new int[candidates.length];
 		Iterator<ClassTree> iter = froms.iterator();
 		while (froms.size() > 0) {
 			int removals = 0;
 			while (iter.hasNext()) {
 				ClassTree i = iter.next();
-				if (i.isInner() || matched.contains(i.getName())) continue;
+				if (i.isInner() || matched.contains(i.getId())) continue;
 				if (i.getName().indexOf('/') != -1) {
 					ClassTree other = to.lookup(i.getName());
 					if (other != null) {
-						matched.add(i.getName());
-						taken.add(other.getName());
+						matched.add(i.getId());
+						taken.add(other.getId());
 						addChild(new ClassTreeMatcher(100, i, other));
 						iter.remove();
 						removals ++;
@@ -281,30 +447,33 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 				
 				ClassTree lastTree = null;
 				double lastSim = -1;
-				for (ClassTree j : tos) {
-					double sim = i.similarity(j);
+				int count = index.find(before, i.getId(), positions, group);
+				for (int k = 0; k < count; k++) {
+					ClassTree j = tos.get(positions[k]);
+					if (j.getName().indexOf('/') != -1) continue;
+					double sim = before.similarity(i.getId(), after, group[k], lastSim, scorer);
 					if (sim > lastSim) {
-						if (j.getName().indexOf('/') == -1) {
-							lastTree = j;
-							lastSim = sim;
-						}
+						lastTree = j;
+						lastSim = sim;
 					}
 				}
 				if (lastTree != null) {
 					removals ++;
-					if (taken.contains(lastTree.getName())) {
-						ClassTreeMatcher old = root().reverseLookup(lastTree.getName());
+					if (taken.contains(lastTree.getId())) {
+						ClassTreeMatcher old = root().reverseLookup(lastTree.getId());
 						if (lastSim > old.similarity) {
-							matched.remove(old.from.getName());
-							matched.add(lastTree.getName());
+							matched.remove(old.from.getId());
+							matched.add(i.getId());
 							froms.add(old.from);
+							root().sources.remove(old.from, old);
 							old.from = i;
+							root().sources.add(i, old);
 							froms.remove(i);
 							iter = froms.iterator();
 						}
 					} else {
-						matched.add(i.getName());
-						taken.add(lastTree.getName());
+						matched.add(i.getId());
+						taken.add(lastTree.getId());
 						iter.remove();
 						addChild(new ClassTreeMatcher(lastSim, i, lastTree));
 					}
@@ -312,47 +481,75 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 			}
 			if (removals == 0) break;
 		}
-		for (ClassTreeMatcher i : children) {
-			i.matchChilds(matched, taken);
+	}
+	
+	private void matchInnerClasses(SymbolSet matched, SymbolSet taken) {
+		if (parallel && solver != null) {
+			ForkJoinPool.commonPool().invoke(new MatchTask(null, this, matched, taken, true));
+			return;
+		}
+		for (ClassTreeMatcher i : preOrder()) {
+			i.matchInners(matched, taken);
 		}
 	}
 	
-	private void matchInnerClasses(List<String> matched, List<String> taken) {
+	/**
+	 * Matches the inner classes of this Matcher's classes by similarity.
+	 */
+	private void matchInners(SymbolSet matched, SymbolSet taken) {
 		List<ClassTree> froms = new ArrayList<ClassTree>();
 		froms.addAll(from.inner());
 		List<ClassTree> tos = to.inner();
+		if (solver != null) {
+			List<ClassTree> rows = new ArrayList<ClassTree>();
+			for (ClassTree i : froms) {
+				if (i.isInner() && !matched.contains(i.getId())) rows.add(i);
+			}
+			assign(rows, tos, matched, taken);
+			return;
+		}
+		FrozenClassTree before = from.freeze();
+		FrozenClassTree after = to.freeze();
+		SimilarityPipeline scorer = root().scorer;
+		int[] candidates = ids(tos);
+		CandidateIndex index = new CandidateIndex(after, candidates);
+		int[] positions = new int[candidates.length];
+		int[] group = new int[candidates.length];
 		Iterator<ClassTree> iter = froms.iterator();
 		while (froms.size() > 0) {
 			int removals = 0;
 			while (iter.hasNext()) {
 				ClassTree i = iter.next();
-				if (!i.isInner() || matched.contains(i.getName())) continue;
+				if (!i.isInner() || matched.contains(i.getId())) continue;
 				ClassTree lastTree = null;
 				double lastSim = -1;
-				for (ClassTree j : tos) {
-					double sim = i.similarity(j);
+				int count = index.find(before, i.getId(), positions, group);
+				for (int k = 0; k < count; k++) {
+					ClassTree j = tos.get(positions[k]);
+					if (j.getName().indexOf('/') != -1) continue;
+					double sim = before.similarity(i.getId(), after, group[k], lastSim, scorer);
 					if (sim > lastSim) {
-						if (j.getName().indexOf('/') == -1) {
-							lastTree = j;
-							lastSim = sim;
-						}
+						lastTree = j;
+						lastSim = sim;
 					}
 				}
 				if (lastTree != null) {
 					removals++;
-					if (taken.contains(lastTree.getName())) {
-						ClassTreeMatcher old = root().reverseLookup(lastTree.getName());
+					if (taken.contains(lastTree.getId())) {
+						ClassTreeMatcher old = root().reverseLookup(lastTree.getId());
 						if (lastSim > old.similarity) {
-							matched.remove(old.from.getName());
-							matched.add(lastTree.getName());
+							matched.remove(old.from.getId());
+							matched.add(i.getId());
 							froms.add(old.from);
+							root().sources.remove(old.from, old);
 							old.from = i;
+							root().sources.add(i, old);
 							froms.remove(i);
 							iter = froms.iterator();
 						}
 					} else {
-						matched.add(i.getName());
-						taken.add(lastTree.getName());
+						matched.add(i.getId());
+						taken.add(lastTree.getId());
 						iter.remove();
 						addChild(new ClassTreeMatcher(lastSim, i, lastTree));
 					}
@@ -360,11 +557,135 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 			}
 			if (removals == 0) break;
 		}
-		for (ClassTreeMatcher i : children) {
-			i.matchInnerClasses(matched, taken);
+	}
+	
+	/**
+	 * Scores every class in a sibling group against every free destination class and adds the pairs chosen by the {@link #solver}.
+	 * Pairs the {@link CandidateIndex} leaves out are never chosen.
+	 */
+	private void assign(List<ClassTree> rows, List<ClassTree> tos, SymbolSet matched, SymbolSet taken) {
+		List<ClassTree> columns = new ArrayList<ClassTree>();
+		for (ClassTree j : tos) {
+			if (!taken.contains(j.getId()) && j.getName().indexOf('/') == -1) columns.add(j);
+		}
+		if (rows.isEmpty() || columns.isEmpty()) return;
+		FrozenClassTree before = from.freeze();
+		FrozenClassTree after = to.freeze();
+		SimilarityPipeline scorer = root().scorer;
+		int[] candidates = ids(columns);
+		CandidateIndex index = new CandidateIndex(after, candidates);
+		int[] positions = new int[candidates.length];
+		int[] group = new int[candidates.length];
+		double[] row = new double[candidates.length];
+		if ((long)rows.size() * candidates.length > MAX_SOLVED_PAIRS) {
+			boolean[] claimed = new boolean[candidates.length];
+			for (ClassTree f : rows) {
+				int count = index.find(before, f.getId(), positions, group);
+				before.similarity(f.getId(), after, group, count, row, scorer);
+				int best = -1;
+				for (int k = 0; k < count; k++) {
+					if (!claimed[positions[k]] && (best == -1 || row[k] > row[best])) best = k;
+				}
+				if (best == -1) continue;
+				claimed[positions[best]] = true;
+				matched.add(f.getId());
+				taken.add(group[best]);
+				addChild(new ClassTreeMatcher(row[best], f, columns.get(positions[best])));
+			}
+			return;
+		}
+		double[] scores = new double[rows.size() * candidates.length];
+		Arrays.fill(scores, AssignmentSolver.FORBIDDEN);
+		for (int i = 0; i < rows.size(); i++) {
+			int one = rows.get(i).getId();
+			int count = index.find(before, one, positions, group);
+			before.similarity(one, after, group, count, row, scorer);
+			for (int k = 0; k < count; k++) {
+				scores[i * candidates.length + positions[k]] = row[k];
+			}
+		}
+		int[] assignment = solver.solve(scores, rows.size(), candidates.length);
+		for (int i = 0; i < rows.size(); i++) {
+			int j = assignment[i];
+			if (j == -1 || scores[i * candidates.length + j] == AssignmentSolver.FORBIDDEN) continue;
+			ClassTree f = rows.get(i);
+			ClassTree t = columns.get(j);
+			matched.add(f.getId());
+			taken.add(t.getId());
+			addChild(new ClassTreeMatcher(scores[i * candidates.length + j], f, t));
 		}
 	}
 	
+	/**
+	 * Matches the children or inner classes of one pair of classes, then forks a task for each pair below it.
+	 * Tasks complete without waiting on their children, so trees of any depth can be matched without overflowing the stack.
+	 */
+	private static final class MatchTask extends CountedCompleter<Void> {
+		private static final long serialVersionUID = 1L;
+		
+		private final ClassTreeMatcher matcher;
+		private final SymbolSet matched;
+		private final SymbolSet taken;
+		private final boolean inners;
+		
+		MatchTask(MatchTask parent, ClassTreeMatcher matcher, SymbolSet matched, SymbolSet taken, boolean inners) {
+			super(parent);
+			this.matcher = matcher;
+			this.matched = matched;
+			this.taken = taken;
+			this.inners = inners;
+		}
+		
+		public void compute() {
+			if (inners) {
+				matcher.matchInners(matched, taken);
+			} else {
+				matcher.matchClasses(matched, taken);
+			}
+			List<ClassTreeMatcher> children = matcher.children;
+			setPendingCount(children.size());
+			for (ClassTreeMatcher i : children) {
+				new MatchTask(this, i, matched, taken, inners).fork();
+			}
+			tryComplete();
+		}
+	}
+	
+	/**
+	 * Matchers by the id of one of their classes. A class is only ever claimed by one matcher at a time.
+	 */
+	private static final class Index {
+		private ClassTreeMatcher[] matchers = new ClassTreeMatcher[0];
+		
+		synchronized void add(ClassTree tree, ClassTreeMatcher matcher) {
+			if (tree == null) return;
+			int id = tree.getId();
+			if (id >= matchers.length) matchers = Arrays.copyOf(matchers, Math.max(id + 1, matchers.length * 2));
+			matchers[id] = matcher;
+		}
+		
+		synchronized void remove(ClassTree tree, ClassTreeMatcher matcher) {
+			if (tree == null) return;
+			int id = tree.getId();
+			if (id < matchers.length && matchers[id] == matcher) matchers[id] = null;
+		}
+		
+		/**
+		 * Gets the matcher for an id, or null if there is none.
+		 */
+		synchronized ClassTreeMatcher get(int id) {
+			return id < 0 || id >= matchers.length ? null : matchers[id];
+		}
+	}
+	
+	private static int[] ids(List<ClassTree> classes) {
+		int[] result = new int[classes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = classes.get(i).getId();
+		}
+		return result;
+	}
+	
 	/**
 	 * Adds a mapping to the tree initialising parents and children if necessary.
 	 */
@@ -373,20 +694,30 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	}
 	
 	private ClassTreeMatcher define(ClassTree from, ClassTree to, boolean initialise) {
-		ClassTreeMatcher parent = root().lookup(from.parent().getName());
+		ClassTreeMatcher parent = root().lookup(from.parent().getId());
 		if (parent == null) {
 			return define(from.parent(), to.parent(), false);
 		}
-		ClassTreeMatcher fromMatcher = root().lookup(from.getName());
-		ClassTreeMatcher toMatcher = root().reverseLookup(to.getName());
+		ClassTreeMatcher fromMatcher = root().lookup(from.getId());
+		ClassTreeMatcher toMatcher = root().reverseLookup(to.getId());
 		if (fromMatcher != null && toMatcher == null) {
+			getUnassigned().add(fromMatcher.to.getName());
+			getUnassigned().remove(to.getName());
+			root().destinations.remove(fromMatcher.to, fromMatcher);
 			fromMatcher.to = to;
-			fromMatcher.similarity = fromMatcher.from.similarity(to);
+			root().destinations.add(to, fromMatcher);
+			fromMatcher.similarity = fromMatcher.from.similarity(to, root().scorer);
+			fromMatcher.invalidate();
 			return fromMatcher.parent();
 		}
 		if (toMatcher != null && fromMatcher == null) {
+			getUnmatched().add(toMatcher.from.getName());
+			getUnmatched().remove(from.getName());
+			root().sources.remove(toMatcher.from, toMatcher);
 			toMatcher.from = from;
-			toMatcher.similarity = from.similarity(toMatcher.to);
+			root().sources.add(from, toMatcher);
+			toMatcher.similarity = from.similarity(toMatcher.to, root().scorer);
+			toMatcher.invalidate();
 			return toMatcher.parent();
 		}
 		if (fromMatcher != null && toMatcher != null) {
@@ -400,7 +731,7 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 			}
 			throw new IllegalStateException("Can only define a relationship between classes with the same parent");
 		}
-		ClassTreeMatcher child = parent.addChild(new ClassTreeMatcher(from.similarity(to), from, to));
+		ClassTreeMatcher child = parent.addChild(new ClassTreeMatcher(from.similarity(to, root().scorer), from, to));
 		if (initialise) child.initialise(parent.root());
 		getUnmatched().remove(from.getName());
 		getUnassigned().remove(to.getName());
@@ -408,35 +739,88 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	}
 	
 	public ClassTreeMatcher addChild(ClassTreeMatcher child) {
+		if (children == NONE) children = new ArrayList<ClassTreeMatcher>(2);
 		children.add(child);
 		if (child.parent != null) {
 			child.parent.children.remove(child);
+			child.parent.invalidate();
+		} else {
+			root().sources.add(child.from, child);
+			root().destinations.add(child.to, child);
 		}
 		child.parent = this;
 		child.root = root();
+		invalidate();
 		return child;
 	}
 	
 	public ClassTreeMatcher sort() {
-		Collections.sort(children);
-		for (ClassTreeMatcher i : children) {
-			i.sort();
+		for (ClassTreeMatcher i : preOrder()) {
+			Collections.sort(i.children);
+			i.dirty = true;
 		}
 		return this;
 	}
 	
 	/**
-	 * Gets a list of all source classes not currently matched.
+	 * Marks the totals of this matcher and everything above it as needing to be recalculated.
+	 * A matcher is never clean while one of its descendants is dirty, so this stops at the first one already marked.
 	 */
-	public List<String> getUnmatched() {
+	private void invalidate() {
+		for (ClassTreeMatcher i = this; i != null && !i.dirty; i = i.parent) {
+			i.dirty = true;
+		}
+	}
+	
+	/**
+	 * Recalculates the totals of this matcher, and any dirty matchers below it.
+	 * Each matcher's total similarity is its own plus its children's totals in order, the same as summing them recursively.
+	 */
+	private void aggregate() {
+		if (!dirty) return;
+		List<ClassTreeMatcher> pending = new ArrayList<ClassTreeMatcher>();
+		pending.add(this);
+		for (int n = 0; n < pending.size(); n++) {
+			for (ClassTreeMatcher i : pending.get(n).children) {
+				if (i.dirty) pending.add(i);
+			}
+		}
+		// Every matcher comes after its parent, so going backwards totals children first
+		for (int n = pending.size() - 1; n >= 0; n--) {
+			ClassTreeMatcher i = pending.get(n);
+			int size = 1;
+			double total = i.similarity;
+			for (ClassTreeMatcher j : i.children) {
+				size += j.size;
+				total += j.total;
+			}
+			i.size = size;
+			i.total = total;
+			i.dirty = false;
+		}
+	}
+	
+	/**
+	 * Gets the names of all source classes not currently matched, in the order they were found.
+	 * The set is kept up to date as classes are defined.
+	 */
+	public Set<String> getUnmatched() {
 		return unmatchedClasses == null && root() != this ? root().getUnmatched() : unmatchedClasses;
 	}
 	
 	/**
-	 * Gets a list of all destination classes not currently matched.
+	 * Gets the names of all destination classes not currently matched, in the order they were found.
+	 * The set is kept up to date as classes are defined.
+	 */
+	public Set<String> getUnassigned() {
+		return unassignedClasses == null && root() != this ? root().getUnassigned() : unassignedClasses;
+	}
+	
+	/**
+	 * Gets the pipeline classes are scored with.
 	 */
-	public List<String> getUnassigned() {
-		return unassignedClasses == null && root() != this ? root().getUnmatched() : unassignedClasses;
+	public SimilarityPipeline getScorer() {
+		return root().scorer;
 	}
 	
 	/**
@@ -478,35 +862,48 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	 * Looks up an entry by the name of it's source class.
 	 */
 	public ClassTreeMatcher lookup(String className) {
-		if (from.getName().equals(className)) return this;
-		ClassTreeMatcher result = null;
-		for (ClassTreeMatcher i : children) {
-			result = i.lookup(className);
-			if (result != null) {
-				return result;
-			}
-		}
-		return result;
+		int id = from.symbols().find(className);
+		return id == -1 ? null : lookup(id);
+	}
+	
+	/**
+	 * Looks up an entry by the id of it's source class.
+	 */
+	public ClassTreeMatcher lookup(int id) {
+		return contains(root().sources.get(id));
 	}
 	
 	/**
 	 * Looks up an entry by the name of it's destination class.
 	 */
 	public ClassTreeMatcher reverseLookup(String className) {
-		if (to.getName().equals(className)) return this;
-		ClassTreeMatcher result = null;
-		for (ClassTreeMatcher i : children) {
-			result = i.reverseLookup(className);
-			if (result != null) return result;
+		int id = to.symbols().find(className);
+		return id == -1 ? null : reverseLookup(id);
+	}
+	
+	/**
+	 * Looks up an entry by the id of it's destination class.
+	 */
+	public ClassTreeMatcher reverseLookup(int id) {
+		return contains(root().destinations.get(id));
+	}
+	
+	/**
+	 * Returns the given matcher if it is this one or below it, otherwise null.
+	 */
+	private ClassTreeMatcher contains(ClassTreeMatcher matcher) {
+		if (this == root()) return matcher;
+		for (ClassTreeMatcher i = matcher; i != null; i = i.parent) {
+			if (i == this) return matcher;
 		}
-		return result;
+		return null;
 	}
 	
+	/**
+	 * Gets the number of entries in this matcher and everything below it.
+	 */
 	public int size() {
-		int size = 1;
-		for (ClassTreeMatcher i : children) {
-			size += i.size();
-		}
+		aggregate();
 		return size;
 	}
 	
@@ -514,19 +911,25 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	 * Swaps the destinations of this class and another and recomputes the similarity for these two elements.
 	 */
 	public void swap(ClassTreeMatcher other) {
-		ClassTree inter = to;;
+		ClassTree inter = to;
+		root().destinations.remove(to, this);
+		root().destinations.remove(other.to, other);
 		to = other.to;
 		other.to = inter;
-		similarity = from.similarity(to);
-		other.similarity = other.from.similarity(other.to);
+		root().destinations.add(to, this);
+		root().destinations.add(other.to, other);
+		similarity = from.similarity(to, root().scorer);
+		other.similarity = other.from.similarity(other.to, root().scorer);
+		invalidate();
+		other.invalidate();
 	}
 	
+	/**
+	 * Gets the sum of the similarities of this entry and everything below it.
+	 */
 	public double similarity() {
-		double sim = similarity;
-		for (ClassTreeMatcher i : children) {
-			sim += i.similarity();
-		}
-		return sim;
+		aggregate();
+		return total;
 	}
 	
 	public double averageSimilarity() {
@@ -539,7 +942,13 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 	}
 	
 	public String toString() {
-		return toString("");
+		StringBuilder result = new StringBuilder();
+		try {
+			renderer(result).render(this);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return result.toString();
 	}
 	
 	public String bitMask() {
@@ -572,28 +981,38 @@ public class ClassTreeMatcher implements Tree<ClassTreeMatcher, String> {
 		return result + " { fields: " + from.fields() + " -> " + to.fields() + "; methods: " + from.methods() + " -> " + to.methods() + "; interfaces: " + from.interfaces() + " -> " + to.interfaces() + " }";
 	}
 	
-	private String toString(String indent) {
-		String result = "";
-		result += bitMask();
-		result += indent + description();
-		result += Patterns.LINE_SEPARATOR;
-		indent += "\t";
-		for (ClassTreeMatcher i : children) {
-			result += i.toString(indent);
-		}
-		return result;
+	public void accept(TreeVisitor<ClassTreeMatcher> visitor) {
+		TreeTraversal.accept(this, visitor);
 	}
 	
-	public List<String> keySet() {
-		List<String> result = new ArrayList<String>();
-		buildKeySet(result);
-		return result;
+	public Iterable<ClassTreeMatcher> preOrder() {
+		return TreeTraversal.preOrder(this);
 	}
 	
-	private void buildKeySet(List<String> keyset) {
-		keyset.add(from.getName());
-		for (ClassTreeMatcher i : children) {
-			i.buildKeySet(keyset);
+	public Iterable<ClassTreeMatcher> postOrder() {
+		return TreeTraversal.postOrder(this);
+	}
+	
+	public Stream<ClassTreeMatcher> stream() {
+		return TreeTraversal.stream(this);
+	}
+	
+	/**
+	 * Creates a renderer that writes matchers in the same format as {@link #toString()}, each line starting with its {@link #bitMask()}.
+	 */
+	public static TreeRenderer<ClassTreeMatcher> renderer(Appendable out) {
+		return new TreeRenderer<ClassTreeMatcher>(out) {
+			protected void prefix(ClassTreeMatcher element, StringBuilder line) {
+				line.append(element.bitMask());
+			}
+		};
+	}
+	
+	public List<String> keySet() {
+		List<String> result = new ArrayList<String>();
+		for (ClassTreeMatcher i : preOrder()) {
+			result.add(i.from.getName());
 		}
+		return result;
 	}
 }
@@ -0,0 +1,568 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable, array-backed snapshot of a built {@link ClassTree}.
+ * <p>
+ * Every class is stored at the index of its {@link ClassTree#getId() id}. The hierarchy is kept as
+ * parent, first child and next sibling links, interfaces as an adjacency list, and the counts used
+ * when comparing classes in flat primitive arrays, so similarities can be calculated without
+ * chasing the tree's objects.
+ * <p>
+ * The attributes compared for every pair of classes are precomputed as a fingerprint: the counts of
+ * fields, methods, abstract methods and interfaces side by side in one array, and the shape of the
+ * chain of outer classes packed into a bit mask. Which of them are compared, and how much each counts,
+ * is up to the {@link SimilarityPipeline} given. Scoring a class against a whole group of candidates
+ * with {@link #similarity(int, FrozenClassTree, int[], int, double[], SimilarityPipeline)} runs over
+ * those arrays without allocating. (The JDK's Vector API would need Java 16 or later, so the loops are left
+ * for the JIT to optimise.)
+ * <p>
+ * As every {@link SimilarityScorer} scores at most 1, no pair of subtrees can score more than one for every
+ * class in the smaller of them plus the size of each class's interface hierarchy, so when {@link #setPruning(boolean) pruning} is on a pair can be given up on
+ * as soon as what it has scored so far and the most its remaining children could add fall short of the best
+ * candidate found before it.
+ * <p>
+ * A snapshot reflects the tree at the time it was taken, including the order of its children.
+ * Use {@link ClassTree#freeze()} to get one that is kept up to date.
+ */
+public final class FrozenClassTree {
+	private static final byte INNER = 1;
+	private static final byte INTERFACE = 2;
+	private static final byte ABSTRACT = 4;
+	
+	/**
+	 * Positions of the counts in a class's fingerprint.
+	 */
+	public static final int FIELDS = 0;
+	public static final int METHODS = 1;
+	public static final int ABSTRACT_METHODS = 2;
+	public static final int INTERFACES = 3;
+	
+	/**
+	 * Number of counts in a class's fingerprint.
+	 */
+	public static final int FEATURES = 4;
+	
+	/**
+	 * Longest chain of outer classes that fits in a nesting mask.
+	 */
+	private static final int MAX_NESTING = 63;
+	
+	/**
+	 * How far below a threshold the bound on a pair's score has to be for the pair to be given up on,
+	 * relative to the threshold, so rounding can never prune a pair that would have reached it.
+	 */
+	private static final double SLACK = 1e-6;
+	
+	private static boolean pruning = false;
+	
+	private static final AtomicLong bounded = new AtomicLong();
+	private static final AtomicLong pruned = new AtomicLong();
+	
+	private static final ThreadLocal<Walk> walks = new ThreadLocal<Walk>() {
+		protected Walk initialValue() {
+			return new Walk();
+		}
+	};
+	
+	private final ClassTree[] nodes;
+	
+	private final int[] parent;
+	private final int[] firstChild;
+	private final int[] nextSibling;
+	private final int[] childCount;
+	
+	/**
+	 * The interfaces of class i are ids interfaces[interfaceStart[i]] to interfaces[interfaceStart[i + 1] - 1].
+	 */
+	private final int[] interfaceStart;
+	private final int[] interfaces;
+	
+	private final int[] outer;
+	private final byte[] flags;
+	
+	/**
+	 * The counts of class i are fingerprint[i * FEATURES] to fingerprint[i * FEATURES + FEATURES - 1].
+	 */
+	private final int[] fingerprint;
+	
+	/**
+	 * Bit n is set if the n'th class in the chain of outer classes starting at class i is an inner class.
+	 * The chain is nestingLength[i] classes long, or longer if that is more than {@link #MAX_NESTING}.
+	 */
+	private final long[] nesting;
+	private final byte[] nestingLength;
+	
+	/**
+	 * Sorted {@link MethodFingerprint method fingerprints} of every class, or null for classes whose methods were not fingerprinted.
+	 */
+	private final long[][] methodFingerprints;
+	
+	private final int[] size;
+	private final int[] depth;
+	private final int[] implSize;
+	
+	/**
+	 * Sum over every class in the subtree of 1 plus its implSize: the most the subtree can score against any other.
+	 */
+	private final double[] reach;
+	
+	/**
+	 * Scores of subtrees in this tree against those in {@link #cachedAgainst}, by {@link #cachedScorer}.
+	 */
+	private SimilarityCache cache;
+	private FrozenClassTree cachedAgainst;
+	private SimilarityPipeline cachedScorer;
+	
+	FrozenClassTree(ClassTree[] byId) {
+		int count = byId.length;
+		nodes = byId.clone();
+		parent = new int[count];
+		firstChild = new int[count];
+		nextSibling = new int[count];
+		childCount = new int[count];
+		interfaceStart = new int[count + 1];
+		outer = new int[count];
+		flags = new byte[count];
+		fingerprint = new int[count * FEATURES];
+		nesting = new long[count];
+		nestingLength = new byte[count];
+		methodFingerprints = new long[count][];
+		size = new int[count];
+		depth = new int[count];
+		implSize = new int[count];
+		reach = new double[count];
+		
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+		int totalInterfaces = 0;
+		for (int i = 0; i < count; i++) {
+			ClassTree node = nodes[i];
+			parent[i] = node.root() == node ? -1 : node.parent().getId();
+			List<ClassTree> children = node.children();
+			childCount[i] = children.size();
+			for (int j = children.size() - 1; j >= 0; j--) {
+				int child = children.get(j).getId();
+				nextSibling[child] = firstChild[i];
+				firstChild[i] = child;
+			}
+			interfaceStart[i] = totalInterfaces;
+			totalInterfaces += node.interfaces();
+			ClassTree container = node.outer();
+			outer[i] = container == null ? -1 : container.getId();
+			byte flag = 0;
+			if (node.isInner()) flag |= INNER;
+			if (node.isInterface()) flag |= INTERFACE;
+			if (node.isAbstract()) flag |= ABSTRACT;
+			flags[i] = flag;
+			fingerprint[i * FEATURES + FIELDS] = node.fields();
+			fingerprint[i * FEATURES + METHODS] = node.methods();
+			fingerprint[i * FEATURES + ABSTRACT_METHODS] = node.abstractMethods();
+			fingerprint[i * FEATURES + INTERFACES] = node.interfaces();
+			ClassSummary summary = node.summary();
+			methodFingerprints[i] = summary == null || !summary.hasMethodFingerprints() ? null : summary.methodFingerprints();
+			size[i] = node.size();
+			depth[i] = node.depth();
+			implSize[i] = node.implSize();
+		}
+		interfaceStart[count] = totalInterfaces;
+		interfaces = new int[totalInterfaces];
+		for (int i = 0; i < count; i++) {
+			List<ClassTree> faces = nodes[i].interfaceList();
+			for (int j = 0; j < faces.size(); j++) {
+				interfaces[interfaceStart[i] + j] = faces.get(j).getId();
+			}
+			long mask = 0;
+			int length = 0;
+			for (int j = i; j != -1 && length <= MAX_NESTING; j = outer[j]) {
+				if (isInner(j) && length < MAX_NESTING) mask |= 1L << length;
+				length++;
+			}
+			nesting[i] = mask;
+			nestingLength[i] = (byte)length;
+			for (int j = i; j != -1; j = parent[j]) {
+				reach[j] += 1 + implSize[i];
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of classes in this snapshot.
+	 */
+	public int length() {
+		return nodes.length;
+	}
+	
+	/**
+	 * Gets the class with the given id.
+	 */
+	public ClassTree node(int id) {
+		return nodes[id];
+	}
+	
+	/**
+	 * Gets the id of a class's parent, or -1 for the root.
+	 */
+	public int parent(int id) {
+		return parent[id];
+	}
+	
+	/**
+	 * Gets the id of a class's first child, or -1 if it has none.
+	 */
+	public int firstChild(int id) {
+		return firstChild[id];
+	}
+	
+	/**
+	 * Gets the id of the class following this one in its parent's children, or -1 if it is the last.
+	 */
+	public int nextSibling(int id) {
+		return nextSibling[id];
+	}
+	
+	public int childCount(int id) {
+		return childCount[id];
+	}
+	
+	/**
+	 * Gets the number of interfaces implemented by a class.
+	 */
+	public int interfaceCount(int id) {
+		return interfaceStart[id + 1] - interfaceStart[id];
+	}
+	
+	/**
+	 * Gets the id of the index'th interface implemented by a class.
+	 */
+	public int getInterface(int id, int index) {
+		return interfaces[interfaceStart[id] + index];
+	}
+	
+	/**
+	 * Gets the id of a class's outer class, or -1 if it is not an inner class or its outer class is not in the tree.
+	 */
+	public int outer(int id) {
+		return outer[id];
+	}
+	
+	public boolean isInner(int id) {
+		return (flags[id] & INNER) != 0;
+	}
+	
+	public boolean isInterface(int id) {
+		return (flags[id] & INTERFACE) != 0;
+	}
+	
+	public boolean isAbstract(int id) {
+		return (flags[id] & ABSTRACT) != 0;
+	}
+	
+	public int fields(int id) {
+		return fingerprint[id * FEATURES + FIELDS];
+	}
+	
+	public int methods(int id) {
+		return fingerprint[id * FEATURES + METHODS];
+	}
+	
+	public int abstractMethods(int id) {
+		return fingerprint[id * FEATURES + ABSTRACT_METHODS];
+	}
+	
+	/**
+	 * Gets one of the counts in a class's fingerprint.
+	 * @param feature	One of {@link #FIELDS}, {@link #METHODS}, {@link #ABSTRACT_METHODS} or {@link #INTERFACES}
+	 */
+	public int feature(int id, int feature) {
+		return fingerprint[id * FEATURES + feature];
+	}
+	
+	/**
+	 * Gets the number of classes below and including the given one.
+	 */
+	public int size(int id) {
+		return size[id];
+	}
+	
+	/**
+	 * Gets the number of levels in the tree below and including the given class.
+	 */
+	public int depth(int id) {
+		return depth[id];
+	}
+	
+	public int implSize(int id) {
+		return implSize[id];
+	}
+	
+	/**
+	 * Gets the sorted {@link MethodFingerprint method fingerprints} of a class. The array returned is shared and must not be changed.
+	 * Returns null if the class's methods were not fingerprinted, as for library classes and classes not in either jar.
+	 */
+	public long[] methodFingerprints(int id) {
+		return methodFingerprints[id];
+	}
+	
+	/**
+	 * Sets whether {@link #similarity(int, FrozenClassTree, int, double)} gives up on pairs that cannot reach
+	 * the threshold it is given. Off by default, in which case every pair is scored in full.
+	 */
+	public static void setPruning(boolean value) {
+		pruning = value;
+	}
+	
+	public static boolean isPruning() {
+		return pruning;
+	}
+	
+	/**
+	 * Gets the number of pairs of classes scored against a threshold with pruning on so far.
+	 */
+	public static long bounded() {
+		return bounded.get();
+	}
+	
+	/**
+	 * Gets the number of those pairs that were given up on before they were scored in full.
+	 */
+	public static long pruned() {
+		return pruned.get();
+	}
+	
+	public static void resetCounts() {
+		bounded.set(0);
+		pruned.set(0);
+	}
+	
+	public static String report() {
+		long b = bounded.get();
+		long p = pruned.get();
+		String rate = b == 0 ? "0" : String.valueOf(Math.floor(p * 10000d / b) / 100);
+		return "Similarity pruning: " + p + " of " + b + " pairs given up on early (" + rate + "%)";
+	}
+	
+	/**
+	 * Gets the cache holding scores of classes in this tree against those in another, as scored by the given pipeline.
+	 * Only the cache for the last tree and pipeline asked for is kept. Returns null if caching is turned off.
+	 */
+	public synchronized SimilarityCache cache(FrozenClassTree other, SimilarityPipeline scorer) {
+		if (cachedAgainst != other || cachedScorer != scorer) {
+			int capacity = SimilarityCache.getDefaultCapacity();
+			cache = capacity > 0 ? new SimilarityCache(capacity) : null;
+			cachedAgainst = other;
+			cachedScorer = scorer;
+		}
+		return cache;
+	}
+	
+	/**
+	 * Calculates the similarity between a class in this tree and one in another.
+	 * Gives exactly the same result as {@link ClassTree#similarity(ClassTree, SimilarityPipeline)}.
+	 */
+	public double similarity(int one, FrozenClassTree other, int two, SimilarityPipeline scorer) {
+		return 100 * (similarityInt(one, other, two, scorer, cache(other, scorer), walks.get(), Double.NEGATIVE_INFINITY)/(Math.max(size[one] + implSize[one], other.size[two] + other.implSize[two])));
+	}
+	
+	/**
+	 * Calculates the similarity between a class in this tree and one in another if it could be at least the given threshold.
+	 * With {@link #setPruning(boolean) pruning} on, a pair that cannot reach it is given up on as soon as that is certain
+	 * and scores {@link Double#NEGATIVE_INFINITY} instead. Every other pair gets exactly the same score as
+	 * {@link #similarity(int, FrozenClassTree, int, SimilarityPipeline)} gives it, so the best of a group of candidates is the same either way.
+	 * @param threshold	Score to reach, usually the best of the candidates compared before this one
+	 */
+	public double similarity(int one, FrozenClassTree other, int two, double threshold, SimilarityPipeline scorer) {
+		int denominator = Math.max(size[one] + implSize[one], other.size[two] + other.implSize[two]);
+		double floor = Double.NEGATIVE_INFINITY;
+		if (pruning) {
+			floor = threshold / 100 * denominator * (1 - SLACK);
+			bounded.incrementAndGet();
+		}
+		double sum = similarityInt(one, other, two, scorer, cache(other, scorer), walks.get(), floor);
+		if (Double.isNaN(sum)) {
+			pruned.incrementAndGet();
+			return Double.NEGATIVE_INFINITY;
+		}
+		return 100 * (sum/denominator);
+	}
+	
+	/**
+	 * Scores one class in this tree against several in another, without allocating.
+	 * The similarity of one to candidates[i] is written to scores[i], for the first count candidates.
+	 * Gives exactly the same results as {@link #similarity(int, FrozenClassTree, int, SimilarityPipeline)}.
+	 */
+	public void similarity(int one, FrozenClassTree other, int[] candidates, int count, double[] scores, SimilarityPipeline scorer) {
+		SimilarityCache cache = cache(other, scorer);
+		Walk walk = walks.get();
+		int oneSize = size[one] + implSize[one];
+		for (int i = 0; i < count; i++) {
+			int two = candidates[i];
+			scores[i] = 100 * (similarityInt(one, other, two, scorer, cache, walk, Double.NEGATIVE_INFINITY)/(Math.max(oneSize, other.size[two] + other.implSize[two])));
+		}
+	}
+	
+	/**
+	 * Sums the similarity of two classes and of their children paired up by position, all the way down.
+	 * Walks both trees with an explicit stack, adding up in the same order as a recursive walk would.
+	 * The sum for every pair of subtrees is cached, so pairs already scored are not walked again.
+	 * <p>
+	 * Alongside the sums it keeps the most the children left at every level could still add, from their {@link #reach}.
+	 * If the sums so far plus that fall below the floor the walk stops and gives NaN. Only pairs walked in full are cached.
+	 */
+	private double similarityInt(int one, FrozenClassTree other, int two, SimilarityPipeline scorer, SimilarityCache cache, Walk walk, double floor) {
+		if (!comparable(one, other, two)) return 0;
+		if (cache != null) {
+			double cached = cache.get(one, two);
+			if (!Double.isNaN(cached)) return cached;
+		}
+		if (Math.min(reach[one], other.reach[two]) < floor) return Double.NaN;
+		walk.ensureHeight(Math.min(depth[one], other.depth[two]));
+		int[] pairOne = walk.pairOne;
+		int[] pairTwo = walk.pairTwo;
+		int[] nextOne = walk.nextOne;
+		int[] nextTwo = walk.nextTwo;
+		double[] sums = walk.sums;
+		double[] restOne = walk.restOne;
+		double[] restTwo = walk.restTwo;
+		int top = 0;
+		pairOne[0] = one;
+		pairTwo[0] = two;
+		sums[0] = scorer.score(this, one, other, two) + reverseSimilarity(one, other, two, walk);
+		nextOne[0] = firstChild[one];
+		nextTwo[0] = other.firstChild[two];
+		restOne[0] = reach[one] - (1 + implSize[one]);
+		restTwo[0] = other.reach[two] - (1 + other.implSize[two]);
+		double scored = sums[0];
+		double below = 0;
+		while (true) {
+			int i = nextOne[top];
+			int j = nextTwo[top];
+			if (i != -1 && j != -1) {
+				nextOne[top] = nextSibling[i];
+				nextTwo[top] = other.nextSibling[j];
+				restOne[top] -= reach[i];
+				restTwo[top] -= other.reach[j];
+				if (comparable(i, other, j)) {
+					double cached = cache == null ? Double.NaN : cache.get(i, j);
+					if (!Double.isNaN(cached)) {
+						sums[top] += cached;
+						scored += cached;
+					} else {
+						below += Math.min(restOne[top], restTwo[top]);
+						top++;
+						pairOne[top] = i;
+						pairTwo[top] = j;
+						sums[top] = scorer.score(this, i, other, j) + reverseSimilarity(i, other, j, walk);
+						nextOne[top] = firstChild[i];
+						nextTwo[top] = other.firstChild[j];
+						restOne[top] = reach[i] - (1 + implSize[i]);
+						restTwo[top] = other.reach[j] - (1 + other.implSize[j]);
+						scored += sums[top];
+					}
+				}
+				if (scored + below + Math.min(restOne[top], restTwo[top]) < floor) return Double.NaN;
+			} else {
+				if (cache != null) cache.put(pairOne[top], pairTwo[top], sums[top]);
+				if (top == 0) return sums[0];
+				top--;
+				sums[top] += sums[top + 1];
+				below -= Math.min(restOne[top], restTwo[top]);
+			}
+		}
+	}
+	
+	/**
+	 * Classes can only be similar if they are both interfaces or both not, and both inner classes or both not.
+	 */
+	private boolean comparable(int one, FrozenClassTree other, int two) {
+		return isInterface(one) == other.isInterface(two) && isInner(one) == other.isInner(two);
+	}
+	
+	/**
+	 * Counts the interfaces two classes implement at the same positions, and those their interfaces implement, all the way up.
+	 * Walks them with a work stack rather than recursing, so chains of interfaces of any length cannot overflow the call stack.
+	 */
+	private double reverseSimilarity(int one, FrozenClassTree other, int two, Walk walk) {
+		int[] pendingOne = walk.interfaceOne;
+		int[] pendingTwo = walk.interfaceTwo;
+		pendingOne[0] = one;
+		pendingTwo[0] = two;
+		int top = 1;
+		double result = 0;
+		while (top > 0) {
+			top--;
+			int i = pendingOne[top];
+			int j = pendingTwo[top];
+			int count = Math.min(interfaceCount(i), other.interfaceCount(j));
+			result += count;
+			if (top + count > pendingOne.length) {
+				walk.ensureInterfaces(top + count);
+				pendingOne = walk.interfaceOne;
+				pendingTwo = walk.interfaceTwo;
+			}
+			for (int k = 0; k < count; k++) {
+				pendingOne[top] = getInterface(i, k);
+				pendingTwo[top] = other.getInterface(j, k);
+				top++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks that the chains of outer classes of two classes are inner classes at the same positions, up to the end of the shorter one.
+	 */
+	public boolean matchNesting(int one, FrozenClassTree other, int two) {
+		int length = Math.min(nestingLength[one], other.nestingLength[two]);
+		if (length <= MAX_NESTING) {
+			return ((nesting[one] ^ other.nesting[two]) & ((1L << length) - 1)) == 0;
+		}
+		while (one != -1 && two != -1) {
+			if (isInner(one) != other.isInner(two)) return false;
+			one = outer[one];
+			two = other.outer[two];
+		}
+		return true;
+	}
+	
+	/**
+	 * The stacks used to walk a pair of subtrees and their interfaces, kept per thread and only grown when a deeper pair comes along.
+	 */
+	private static final class Walk {
+		int[] pairOne = new int[0];
+		int[] pairTwo = new int[0];
+		int[] nextOne = new int[0];
+		int[] nextTwo = new int[0];
+		double[] sums = new double[0];
+		double[] restOne = new double[0];
+		double[] restTwo = new double[0];
+		
+		/**
+		 * Pairs of interfaces still to be counted by {@link FrozenClassTree#reverseSimilarity}.
+		 */
+		int[] interfaceOne = new int[16];
+		int[] interfaceTwo = new int[16];
+		
+		void ensureHeight(int height) {
+			if (sums.length >= height) return;
+			int size = Math.max(height, sums.length * 2);
+			pairOne = new int[size];
+			pairTwo = new int[size];
+			nextOne = new int[size];
+			nextTwo = new int[size];
+			sums = new double[size];
+			restOne = new double[size];
+			restTwo = new double[size];
+		}
+		
+		void ensureInterfaces(int size) {
+			if (interfaceOne.length >= size) return;
+			int length = Math.max(size, interfaceOne.length * 2);
+			interfaceOne = Arrays.copyOf(interfaceOne, length);
+			interfaceTwo = Arrays.copyOf(interfaceTwo, length);
+		}
+	}
+}
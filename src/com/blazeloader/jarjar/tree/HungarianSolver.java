@@ -0,0 +1,84 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Arrays;
+
+/**
+ * Finds the assignment with the highest possible total score with the Hungarian method.
+ * <p>
+ * Takes time cubic in the size of the larger side of the group, so it is best kept to small groups.
+ * Groups with more rows than columns are solved transposed.
+ */
+public final class HungarianSolver implements AssignmentSolver {
+	
+	public int[] solve(double[] scores, int rows, int columns) {
+		if (rows <= columns) return solve(scores, rows, columns, false);
+		int[] byColumn = solve(scores, columns, rows, true);
+		int[] result = new int[rows];
+		Arrays.fill(result, -1);
+		for (int j = 0; j < columns; j++) {
+			if (byColumn[j] != -1) result[byColumn[j]] = j;
+		}
+		return result;
+	}
+	
+	/**
+	 * Solves for n rows of m columns, n <= m, minimising the negated scores.
+	 * Rows and columns are numbered from 1 internally, 0 standing for none.
+	 */
+	private static int[] solve(double[] scores, int n, int m, boolean transposed) {
+		double[] u = new double[n + 1];
+		double[] v = new double[m + 1];
+		int[] owner = new int[m + 1];
+		int[] way = new int[m + 1];
+		double[] minimum = new double[m + 1];
+		boolean[] used = new boolean[m + 1];
+		for (int i = 1; i <= n; i++) {
+			owner[0] = i;
+			int column = 0;
+			Arrays.fill(minimum, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, false);
+			do {
+				used[column] = true;
+				int row = owner[column];
+				double delta = Double.POSITIVE_INFINITY;
+				int next = 0;
+				for (int j = 1; j <= m; j++) {
+					if (used[j]) continue;
+					double cost = -score(scores, row - 1, j - 1, n, m, transposed) - u[row] - v[j];
+					if (cost < minimum[j]) {
+						minimum[j] = cost;
+						way[j] = column;
+					}
+					if (minimum[j] < delta) {
+						delta = minimum[j];
+						next = j;
+					}
+				}
+				for (int j = 0; j <= m; j++) {
+					if (used[j]) {
+						u[owner[j]] += delta;
+						v[j] -= delta;
+					} else {
+						minimum[j] -= delta;
+					}
+				}
+				column = next;
+			} while (owner[column] != 0);
+			do {
+				int previous = way[column];
+				owner[column] = owner[previous];
+				column = previous;
+			} while (column != 0);
+		}
+		int[] result = new int[n];
+		Arrays.fill(result, -1);
+		for (int j = 1; j <= m; j++) {
+			if (owner[j] != 0) result[owner[j] - 1] = j - 1;
+		}
+		return result;
+	}
+	
+	private static double score(double[] scores, int row, int column, int n, int m, boolean transposed) {
+		return transposed ? scores[column * n + row] : scores[row * m + column];
+	}
+}
@@ -0,0 +1,209 @@
+package com.blazeloader.jarjar.tree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fingerprints of methods, used to compare classes by what their methods do rather than by their names.
+ * <p>
+ * A method's fingerprint is a 64 bit hash of its arity, the kind of value it returns, and the histogram
+ * of opcodes in its code. The histogram is folded into families of opcodes (loads, stores, invokes, ...)
+ * and every count is reduced to its order of magnitude, so renaming, reordering, and small edits to a
+ * method leave its fingerprint unchanged. A class's fingerprints are kept sorted so two classes can be
+ * compared in a single pass over both.
+ */
+public final class MethodFingerprint {
+	public static final long[] NONE = new long[0];
+	
+	/**
+	 * Return type categories.
+	 */
+	public static final int VOID = 0;
+	public static final int INT = 1;
+	public static final int LONG = 2;
+	public static final int FLOAT = 3;
+	public static final int DOUBLE = 4;
+	public static final int OBJECT = 5;
+	public static final int ARRAY = 6;
+	
+	private static final int TABLESWITCH = 170;
+	private static final int LOOKUPSWITCH = 171;
+	private static final int WIDE = 196;
+	private static final int IINC = 132;
+	
+	/**
+	 * Length in bytes of every fixed length instruction, by opcode. 0 for variable length and unknown opcodes.
+	 */
+	private static final byte[] LENGTH = new byte[256];
+	
+	/**
+	 * Family every opcode is counted in, by opcode. -1 for opcodes that are not counted.
+	 */
+	private static final byte[] FAMILY = new byte[256];
+	
+	static {
+		range(0, 15, 1, 0);			// nop, constants
+		range(16, 16, 2, 0);		// bipush
+		range(17, 17, 3, 0);		// sipush
+		range(18, 18, 2, 0);		// ldc
+		range(19, 20, 3, 0);		// ldc_w, ldc2_w
+		range(21, 25, 2, 1);		// loads
+		range(26, 45, 1, 1);
+		range(46, 53, 1, 2);		// array loads
+		range(54, 58, 2, 3);		// stores
+		range(59, 78, 1, 3);
+		range(79, 86, 1, 4);		// array stores
+		range(87, 95, 1, 5);		// stack
+		range(96, 131, 1, 6);		// arithmetic
+		range(132, 132, 3, 6);		// iinc
+		range(133, 147, 1, 7);		// conversions
+		range(148, 152, 1, 8);		// comparisons
+		range(153, 168, 3, 8);		// branches
+		range(169, 169, 2, 8);		// ret
+		range(170, 171, 0, 9);		// switches
+		range(172, 177, 1, 10);		// returns
+		range(178, 181, 3, 11);		// fields
+		range(182, 184, 3, 12);		// invokes
+		range(185, 186, 5, 12);
+		range(187, 187, 3, 13);		// new
+		range(188, 188, 2, 13);		// newarray
+		range(189, 189, 3, 13);		// anewarray
+		range(190, 190, 1, 13);		// arraylength
+		range(191, 191, 1, 14);		// athrow
+		range(192, 193, 3, 15);		// checkcast, instanceof
+		range(194, 195, 1, 14);		// monitors
+		range(196, 196, 0, -1);		// wide
+		range(197, 197, 4, 13);		// multianewarray
+		range(198, 199, 3, 8);		// ifnull, ifnonnull
+		range(200, 201, 5, 8);		// goto_w, jsr_w
+		range(202, 255, 0, -1);		// reserved
+		FAMILY[0] = -1;
+	}
+	
+	private static void range(int first, int last, int length, int family) {
+		for (int i = first; i <= last; i++) {
+			LENGTH[i] = (byte)length;
+			FAMILY[i] = (byte)family;
+		}
+	}
+	
+	private MethodFingerprint() {
+	
+	}
+	
+	/**
+	 * Gets the number of parameters in a method descriptor.
+	 */
+	public static int arity(String desc) {
+		int count = 0;
+		for (int i = 1; i < desc.length() && desc.charAt(i) != ')'; i++) {
+			char c = desc.charAt(i);
+			if (c == '[') continue;
+			if (c == 'L') i = desc.indexOf(';', i);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the category of the return type of a method descriptor.
+	 */
+	public static int returnType(String desc) {
+		switch (desc.charAt(desc.indexOf(')') + 1)) {
+			case 'V': return VOID;
+			case 'J': return LONG;
+			case 'F': return FLOAT;
+			case 'D': return DOUBLE;
+			case 'L': return OBJECT;
+			case '[': return ARRAY;
+			default: return INT;
+		}
+	}
+	
+	/**
+	 * Adds the opcodes of a method's code to a histogram.
+	 * @param buf		Buffer holding the code
+	 * @param start		Offset of the first instruction in the buffer
+	 * @param length	Length of the code in bytes
+	 * @param histogram	Counts by opcode, 256 long
+	 */
+	public static void count(ByteBuffer buf, int start, int length, int[] histogram) {
+		int pos = 0;
+		while (pos < length) {
+			int opcode = buf.get(start + pos) & 0xFF;
+			histogram[opcode]++;
+			int size = LENGTH[opcode];
+			if (size == 0) {
+				if (opcode == TABLESWITCH) {
+					int table = pos + 1 + (3 - (pos & 3));
+					int low = buf.getInt(start + table + 4);
+					int high = buf.getInt(start + table + 8);
+					size = table - pos + 12 + (high - low + 1) * 4;
+				} else if (opcode == LOOKUPSWITCH) {
+					int table = pos + 1 + (3 - (pos & 3));
+					size = table - pos + 8 + buf.getInt(start + table + 4) * 8;
+				} else if (opcode == WIDE) {
+					int modified = buf.get(start + pos + 1) & 0xFF;
+					histogram[modified]++;
+					size = modified == IINC ? 6 : 4;
+				} else {
+					return;
+				}
+			}
+			pos += size;
+		}
+	}
+	
+	/**
+	 * Hashes a method's arity, return type category, and opcode histogram into its fingerprint.
+	 */
+	public static long of(int arity, int returnType, int[] histogram) {
+		int[] families = new int[16];
+		for (int i = 0; i < 256; i++) {
+			if (histogram[i] > 0 && FAMILY[i] >= 0) families[FAMILY[i]] += histogram[i];
+		}
+		long packed = 0;
+		for (int i = 0; i < families.length; i++) {
+			long magnitude = Math.min(15, 32 - Integer.numberOfLeadingZeros(families[i]));
+			packed |= magnitude << (i * 4);
+		}
+		long hash = packed ^ (arity * 0x9E3779B97F4A7C15L) ^ ((returnType + 1) * 0xC2B2AE3D27D4EB4FL);
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	/**
+	 * Sorts a class's fingerprints so they can be compared with {@link #similarity(long[], long[])}.
+	 */
+	public static long[] sorted(long[] fingerprints) {
+		if (fingerprints.length == 0) return NONE;
+		Arrays.sort(fingerprints);
+		return fingerprints;
+	}
+	
+	/**
+	 * Calculates how alike the methods of two classes are from their sorted fingerprints.
+	 * This is the number of methods that have a counterpart with the same fingerprint, over the number of methods in the larger class.
+	 * Two classes without any methods are alike. Classes that were not fingerprinted should not be compared with this.
+	 */
+	public static float similarity(long[] one, long[] two) {
+		if (one.length == 0 && two.length == 0) return 1;
+		int matches = 0;
+		int i = 0;
+		int j = 0;
+		while (i < one.length && j < two.length) {
+			if (one[i] == two[j]) {
+				matches++;
+				i++;
+				j++;
+			} else if (one[i] < two[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return (float)matches / (float)Math.max(one.length, two.length);
+	}
+}
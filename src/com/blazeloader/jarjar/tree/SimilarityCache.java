@@ -0,0 +1,162 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size memo of subtree similarity scores between the classes of two {@link FrozenClassTree frozen trees}.
+ * <p>
+ * Scores are stored by the ids of the pair of classes they were calculated for. Each pair can go in one of
+ * two neighbouring slots. A new score goes in the first, moving what was there to the second and dropping
+ * the older score there, so memory use never grows past the capacity given. Since a frozen tree never changes, a stored score stays valid for as long as
+ * the two trees it came from.
+ * <p>
+ * Slots are locked in stripes rather than all together, so threads scoring different pairs rarely wait on each other.
+ */
+public final class SimilarityCache {
+	private static int defaultCapacity = 1 << 18;
+	
+	private static final int STRIPES = 64;
+	
+	private final long[] keys;
+	private final double[] scores;
+	private final int mask;
+	
+	private final Object[] locks = new Object[STRIPES];
+	
+	/**
+	 * Counts for each stripe, only changed while holding its lock.
+	 */
+	private final long[] hits = new long[STRIPES];
+	private final long[] misses = new long[STRIPES];
+	private final long[] evictions = new long[STRIPES];
+	
+	/**
+	 * @param capacity	Number of scores to keep. Rounded up to a power of two, and at least 2.
+	 */
+	public SimilarityCache(int capacity) {
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		keys = new long[size];
+		scores = new double[size];
+		mask = size - 1;
+		Arrays.fill(keys, -1);
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+	
+	/**
+	 * Sets the number of scores kept by caches created from now on. 0 turns caching off.
+	 */
+	public static void setDefaultCapacity(int capacity) {
+		defaultCapacity = Math.max(0, capacity);
+	}
+	
+	public static int getDefaultCapacity() {
+		return defaultCapacity;
+	}
+	
+	private static long key(int one, int two) {
+		return ((long)one << 32) | (two & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Gets the first of the two slots a pair can be stored in. The second is the one after it.
+	 */
+	private int slot(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key >>> 32) & mask & ~1;
+	}
+	
+	/**
+	 * Gets the stripe whose lock guards a slot and the one after it.
+	 */
+	private static int stripe(int slot) {
+		return (slot >>> 1) & (STRIPES - 1);
+	}
+	
+	/**
+	 * Gets the score stored for a pair of classes, or NaN if there is none.
+	 */
+	public double get(int one, int two) {
+		long key = key(one, two);
+		int slot = slot(key);
+		int stripe = stripe(slot);
+		synchronized (locks[stripe]) {
+			if (keys[slot] == key) {
+				hits[stripe]++;
+				return scores[slot];
+			}
+			if (keys[slot + 1] == key) {
+				hits[stripe]++;
+				return scores[slot + 1];
+			}
+			misses[stripe]++;
+			return Double.NaN;
+		}
+	}
+	
+	public void put(int one, int two, double score) {
+		long key = key(one, two);
+		int slot = slot(key);
+		int stripe = stripe(slot);
+		synchronized (locks[stripe]) {
+			if (keys[slot] == key || keys[slot + 1] == key) return;
+			if (keys[slot + 1] != -1) evictions[stripe]++;
+			keys[slot + 1] = keys[slot];
+			scores[slot + 1] = scores[slot];
+			keys[slot] = key;
+			scores[slot] = score;
+		}
+	}
+	
+	public void clear() {
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (locks[i]) {
+				for (int slot = i << 1; slot < keys.length; slot += STRIPES << 1) {
+					keys[slot] = -1;
+					keys[slot + 1] = -1;
+				}
+				hits[i] = 0;
+				misses[i] = 0;
+				evictions[i] = 0;
+			}
+		}
+	}
+	
+	public int capacity() {
+		return keys.length;
+	}
+	
+	public long hits() {
+		return total(hits);
+	}
+	
+	public long misses() {
+		return total(misses);
+	}
+	
+	/**
+	 * Gets the number of scores that were replaced by the score of another pair.
+	 */
+	public long evictions() {
+		return total(evictions);
+	}
+	
+	private long total(long[] counts) {
+		long result = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (locks[i]) {
+				result += counts[i];
+			}
+		}
+		return result;
+	}
+	
+	public String toString() {
+		long hits = hits();
+		long misses = misses();
+		long total = hits + misses;
+		String rate = total == 0 ? "0" : String.valueOf(Math.floor(hits * 10000d / total) / 100);
+		return "Similarity cache: " + hits + " hits, " + misses + " misses (" + rate + "% hit rate), " + evictions() + " evictions, " + keys.length + " slots";
+	}
+}
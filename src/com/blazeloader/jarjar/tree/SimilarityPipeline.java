@@ -0,0 +1,243 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores a pair of classes as the weighted average of the scores given by a list of {@link SimilarityScorer scorers}.
+ * <p>
+ * A {@link FrozenClassTree} adds this up for every pair of classes it pairs up while walking two subtrees, along
+ * with how alike their interfaces are. Pipelines cannot be changed once made. {@link #with(SimilarityScorer, float)}
+ * gives a new one, so the scores cached for one pipeline are never used for another.
+ * <p>
+ * A {@link #timed() timed} pipeline counts the calls to each scorer and the time spent in them, so features
+ * that cost more than they are worth can be given a weight of 0 for fast runs.
+ */
+public final class SimilarityPipeline {
+	/**
+	 * Compares the counts of fields, methods, abstract methods and interfaces of classes, their nesting and whether they are abstract, all weighted the same.
+	 */
+	public static final SimilarityPipeline STANDARD = standard(0);
+	
+	private final SimilarityScorer[] scorers;
+	private final float[] weights;
+	private final float totalWeight;
+	
+	/**
+	 * Number of calls to each scorer, and nanoseconds spent in it. Null if the pipeline is not timed.
+	 */
+	private final AtomicLong[] calls;
+	private final AtomicLong[] nanos;
+	
+	private SimilarityPipeline(SimilarityScorer[] scorers, float[] weights, boolean timed) {
+		this.scorers = scorers;
+		this.weights = weights;
+		float total = 0;
+		for (float i : weights) {
+			total += i;
+		}
+		totalWeight = total;
+		if (timed) {
+			calls = new AtomicLong[scorers.length];
+			nanos = new AtomicLong[scorers.length];
+			for (int i = 0; i < scorers.length; i++) {
+				calls[i] = new AtomicLong();
+				nanos[i] = new AtomicLong();
+			}
+		} else {
+			calls = null;
+			nanos = null;
+		}
+	}
+	
+	/**
+	 * Gets a pipeline with no scorers. Every pair of classes scores 0 for itself, leaving only their interfaces to compare.
+	 */
+	public static SimilarityPipeline empty() {
+		return new SimilarityPipeline(new SimilarityScorer[0], new float[0], false);
+	}
+	
+	/**
+	 * Gets the {@link #STANDARD standard} pipeline, with the fingerprints of methods compared as well if their weight is more than 0.
+	 * @param methodWeight	Weight of the {@link ClassFeatures#METHOD_BODIES method fingerprints}. Every other feature has a weight of 1.
+	 */
+	public static SimilarityPipeline standard(float methodWeight) {
+		return empty()
+				.with(ClassFeatures.FIELDS, 1)
+				.with(ClassFeatures.METHODS, 1)
+				.with(ClassFeatures.ABSTRACT_METHODS, 1)
+				.with(ClassFeatures.INTERFACES, 1)
+				.with(ClassFeatures.NESTING, 1)
+				.with(ClassFeatures.ABSTRACT, 1)
+				.with(ClassFeatures.METHOD_BODIES, Math.max(0, methodWeight));
+	}
+	
+	/**
+	 * Reads a pipeline from a list of {@link ClassFeatures features}, separated by commas, each with an optional weight after a colon.
+	 * Features without one have a weight of 1. For example "fields,methods:2,nesting:0.5".
+	 * @throws IllegalArgumentException if a feature is unknown or has a weight that is not a positive number
+	 */
+	public static SimilarityPipeline parse(String features) {
+		SimilarityPipeline result = empty();
+		for (String i : features.split(",")) {
+			i = i.trim();
+			if (i.isEmpty()) continue;
+			int colon = i.indexOf(':');
+			float weight = 1;
+			if (colon != -1) {
+				try {
+					weight = Float.parseFloat(i.substring(colon + 1).trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid weight for feature: " + i, e);
+				}
+				i = i.substring(0, colon).trim();
+			}
+			result = result.with(ClassFeatures.named(i), weight);
+		}
+		return result;
+	}
+	
+	/**
+	 * Gets a copy of this pipeline with a scorer added, or given a new weight if it is already in it.
+	 * A weight of 0 leaves the scorer out, so it is never called.
+	 * @throws IllegalArgumentException if the weight is negative or not a number
+	 */
+	public SimilarityPipeline with(SimilarityScorer scorer, float weight) {
+		if (!(weight >= 0) || Float.isInfinite(weight)) throw new IllegalArgumentException("Weight must be a positive number: " + weight);
+		int index = indexOf(scorer);
+		int length = scorers.length;
+		if (index == -1 && weight > 0) length++;
+		if (index != -1 && weight == 0) length--;
+		SimilarityScorer[] newScorers = new SimilarityScorer[length];
+		float[] newWeights = new float[length];
+		int n = 0;
+		for (int i = 0; i < scorers.length; i++) {
+			if (i == index) {
+				if (weight == 0) continue;
+				newWeights[n] = weight;
+			} else {
+				newWeights[n] = weights[i];
+			}
+			newScorers[n++] = scorers[i];
+		}
+		if (index == -1 && weight > 0) {
+			newWeights[n] = weight;
+			newScorers[n] = scorer;
+		}
+		return new SimilarityPipeline(newScorers, newWeights, isTimed());
+	}
+	
+	/**
+	 * Gets a copy of this pipeline that counts the calls to each of its scorers and the time spent in them.
+	 * Timing costs about as much as the cheaper scorers themselves, so is best left off outside of tuning.
+	 */
+	public SimilarityPipeline timed() {
+		return new SimilarityPipeline(scorers, weights, true);
+	}
+	
+	public boolean isTimed() {
+		return calls != null;
+	}
+	
+	/**
+	 * Gets the number of scorers in this pipeline.
+	 */
+	public int size() {
+		return scorers.length;
+	}
+	
+	public SimilarityScorer scorer(int index) {
+		return scorers[index];
+	}
+	
+	public float weight(int index) {
+		return weights[index];
+	}
+	
+	/**
+	 * Gets the weight of a scorer, or 0 if it is not in this pipeline.
+	 */
+	public float weight(SimilarityScorer scorer) {
+		int index = indexOf(scorer);
+		return index == -1 ? 0 : weights[index];
+	}
+	
+	private int indexOf(SimilarityScorer scorer) {
+		for (int i = 0; i < scorers.length; i++) {
+			if (scorers[i] == scorer) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Scores how alike a class in one tree is to a class in another, from 0 to 1.
+	 */
+	public double score(FrozenClassTree before, int one, FrozenClassTree after, int two) {
+		double result = 0;
+		if (calls == null) {
+			for (int i = 0; i < scorers.length; i++) {
+				result += weights[i] * scorers[i].score(before, one, after, two);
+			}
+		} else {
+			for (int i = 0; i < scorers.length; i++) {
+				long start = System.nanoTime();
+				float score = scorers[i].score(before, one, after, two);
+				nanos[i].addAndGet(System.nanoTime() - start);
+				calls[i].incrementAndGet();
+				result += weights[i] * score;
+			}
+		}
+		if (totalWeight == 0) return 0;
+		return result/totalWeight;
+	}
+	
+	/**
+	 * Gets the number of times a scorer has been called since the counts were last reset. Always 0 if this pipeline is not timed.
+	 */
+	public long calls(int index) {
+		return calls == null ? 0 : calls[index].get();
+	}
+	
+	/**
+	 * Gets the nanoseconds spent in a scorer since the counts were last reset. Always 0 if this pipeline is not timed.
+	 */
+	public long nanos(int index) {
+		return nanos == null ? 0 : nanos[index].get();
+	}
+	
+	public void resetCounts() {
+		if (calls == null) return;
+		for (int i = 0; i < scorers.length; i++) {
+			calls[i].set(0);
+			nanos[i].set(0);
+		}
+	}
+	
+	/**
+	 * Lists the weight of every scorer and, if the pipeline is timed, how many times it was called and for how long.
+	 */
+	public String report() {
+		StringBuilder result = new StringBuilder("Similarity features:");
+		for (int i = 0; i < scorers.length; i++) {
+			result.append("\n    ").append(scorers[i].name()).append(" (weight ").append(weights[i]).append(")");
+			if (calls != null) {
+				long n = calls[i].get();
+				long time = nanos[i].get();
+				result.append(": ").append(n).append(" calls, ").append(Math.floor(time / 10000d) / 100).append("ms");
+				if (n > 0) result.append(", ").append(time / n).append("ns each");
+			}
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Gets this pipeline as a list of features in the form read by {@link #parse(String)}.
+	 */
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < scorers.length; i++) {
+			if (i > 0) result.append(',');
+			result.append(scorers[i].name()).append(':').append(weights[i]);
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,26 @@
+package com.blazeloader.jarjar.tree;
+
+/**
+ * Compares one feature of two classes, such as their numbers of fields.
+ * <p>
+ * Scorers are weighed against each other by a {@link SimilarityPipeline}, and their scores summed over the
+ * subtrees of the classes being matched. The features built in are in {@link ClassFeatures}.
+ * Scorers may be called from several threads at once, so should not keep any state.
+ */
+public interface SimilarityScorer {
+	
+	/**
+	 * Gets the name the scorer is listed under in reports and in -Djarjar.features.
+	 */
+	public String name();
+	
+	/**
+	 * Scores how alike a class in one tree is to a class in another.
+	 * @param before	Tree the first class is in
+	 * @param one		Id of the first class
+	 * @param after		Tree the second class is in
+	 * @param two		Id of the second class
+	 * @return A score from 0, nothing alike, to 1, the same
+	 */
+	public float score(FrozenClassTree before, int one, FrozenClassTree after, int two);
+}
@@ -0,0 +1,41 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.BitSet;
+
+/**
+ * A set of symbol ids, used by the matcher to track which classes have been claimed.
+ * <p>
+ * Safe to share between threads, so subtrees matched in parallel can claim classes in the same set.
+ */
+final class SymbolSet {
+	private final BitSet members = new BitSet();
+	private int size = 0;
+	
+	/**
+	 * Adds an id to this set.
+	 * @return False if it was already in it
+	 * @throws IllegalArgumentException if the id is negative, as given for names that are not in a tree
+	 */
+	public synchronized boolean add(int id) {
+		if (id < 0) throw new IllegalArgumentException("Invalid symbol id: " + id);
+		if (members.get(id)) return false;
+		members.set(id);
+		size++;
+		return true;
+	}
+	
+	public synchronized boolean remove(int id) {
+		if (!contains(id)) return false;
+		members.clear(id);
+		size--;
+		return true;
+	}
+	
+	public synchronized boolean contains(int id) {
+		return id >= 0 && members.get(id);
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+}
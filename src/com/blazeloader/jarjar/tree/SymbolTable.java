@@ -0,0 +1,52 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to class names.
+ * <p>
+ * Every {@link ClassTree} numbers its classes once it has been built, so ids are small enough
+ * to index arrays and bitsets sized to the tree. Ids from different trees are unrelated.
+ */
+public final class SymbolTable {
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+	
+	/**
+	 * Gets the id of a name, assigning the next free one if it does not have one yet.
+	 */
+	public int add(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+	
+	/**
+	 * Gets the id of a name. Returns -1 if the name has not been added.
+	 */
+	public int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Gets the name with the given id.
+	 */
+	public String name(int id) {
+		return names.get(id);
+	}
+	
+	/**
+	 * Gets the number of names in this table. All ids are less than this.
+	 */
+	public int size() {
+		return names.size();
+	}
+}
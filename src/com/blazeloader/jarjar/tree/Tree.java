@@ -1,6 +1,7 @@
 package com.blazeloader.jarjar.tree;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface Tree<T extends Tree<T, I>, I> extends Comparable<T> {
 	
@@ -49,4 +50,24 @@ public interface Tree<T extends Tree<T, I>, I> extends Comparable<T> {
 	 * @return
 	 */
 	public String description();
+	
+	/**
+	 * Visits this element and everything below it, parents before children.
+	 */
+	public void accept(TreeVisitor<T> visitor);
+	
+	/**
+	 * Iterates over this element and everything below it, parents before children.
+	 */
+	public Iterable<T> preOrder();
+	
+	/**
+	 * Iterates over this element and everything below it, children before parents.
+	 */
+	public Iterable<T> postOrder();
+	
+	/**
+	 * Gets a stream over this element and everything below it in pre-order. The stream can be made parallel.
+	 */
+	public Stream<T> stream();
 }
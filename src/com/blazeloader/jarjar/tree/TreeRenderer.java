@@ -0,0 +1,102 @@
+package com.blazeloader.jarjar.tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import net.acomputerdog.core.java.Patterns;
+
+/**
+ * Writes a tree as text, one indented {@link Tree#description() description} per line,
+ * straight to a Writer, PrintStream, or any other Appendable.
+ * <p>
+ * Output can be limited to a number of levels below the starting element and split into pages of lines.
+ * Each line is assembled in a single reused buffer, so memory use does not grow with the size of the tree.
+ */
+public class TreeRenderer<T extends Tree<T, ?>> implements TreeVisitor<T> {
+	private final Appendable out;
+	private final StringBuilder line = new StringBuilder(256);
+	
+	private int maxDepth = Integer.MAX_VALUE;
+	private int firstLine = 0;
+	private int pageSize = Integer.MAX_VALUE;
+	
+	private int skipped;
+	private int written;
+	private boolean truncated;
+	
+	public TreeRenderer(Appendable out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Limits output to elements at most the given number of levels below the starting one. 0 writes only the starting element.
+	 */
+	public TreeRenderer<T> maxDepth(int depth) {
+		maxDepth = depth;
+		return this;
+	}
+	
+	/**
+	 * Only writes the lines of the given page.
+	 * @param page		Index of the page, starting at 0
+	 * @param size		Number of lines on every page
+	 */
+	public TreeRenderer<T> page(int page, int size) {
+		firstLine = page * size;
+		pageSize = size;
+		return this;
+	}
+	
+	/**
+	 * Writes a tree starting at the given element. Returns the number of lines written.
+	 */
+	public int render(T tree) throws IOException {
+		skipped = 0;
+		written = 0;
+		truncated = false;
+		try {
+			tree.accept(this);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return written;
+	}
+	
+	/**
+	 * Returns true if the last render stopped at the end of its page with more lines still to come.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+	
+	public boolean visit(T element, int depth) {
+		if (written >= pageSize) {
+			truncated = true;
+			return false;
+		}
+		if (skipped < firstLine) {
+			skipped++;
+		} else {
+			line.setLength(0);
+			prefix(element, line);
+			for (int i = 0; i < depth; i++) {
+				line.append('\t');
+			}
+			line.append(element.description()).append(Patterns.LINE_SEPARATOR);
+			try {
+				out.append(line);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			written++;
+		}
+		return depth < maxDepth;
+	}
+	
+	/**
+	 * Appends anything that goes before the indentation on an element's line.
+	 */
+	protected void prefix(T element, StringBuilder line) {
+		
+	}
+}
@@ -0,0 +1,239 @@
+package com.blazeloader.jarjar.tree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks {@link Tree trees} with an explicit stack instead of recursion, so hierarchies of any depth can be
+ * traversed without overflowing the call stack.
+ * <p>
+ * Pre-order traversals only read the children of an element once they move past it, so an element may be
+ * given new children while it is being visited. Streams split the tree into subtrees that can be
+ * processed in parallel and keep the pre-order encounter order.
+ */
+public final class TreeTraversal {
+	private TreeTraversal() {
+	
+	}
+	
+	/**
+	 * Iterates over an element and everything below it, parents before their children.
+	 */
+	public static <T extends Tree<T, ?>> Iterable<T> preOrder(final T start) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() {
+				return new PreOrder<T>(start);
+			}
+		};
+	}
+	
+	/**
+	 * Iterates over an element and everything below it, children before their parents.
+	 */
+	public static <T extends Tree<T, ?>> Iterable<T> postOrder(final T start) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() {
+				return new PostOrder<T>(start);
+			}
+		};
+	}
+	
+	/**
+	 * Gets a stream over an element and everything below it in pre-order.
+	 */
+	public static <T extends Tree<T, ?>> Stream<T> stream(T start) {
+		return StreamSupport.stream(new TreeSpliterator<T>(start), false);
+	}
+	
+	/**
+	 * Passes an element and everything below it to a visitor, parents before their children.
+	 */
+	public static <T extends Tree<T, ?>> void accept(T start, TreeVisitor<T> visitor) {
+		if (!visitor.visit(start, 0)) return;
+		Deque<Iterator<T>> stack = new ArrayDeque<Iterator<T>>();
+		stack.push(start.children().iterator());
+		while (!stack.isEmpty()) {
+			Iterator<T> top = stack.peek();
+			if (!top.hasNext()) {
+				stack.pop();
+				continue;
+			}
+			T element = top.next();
+			if (visitor.visit(element, stack.size())) {
+				stack.push(element.children().iterator());
+			}
+		}
+	}
+	
+	private static final class PreOrder<T extends Tree<T, ?>> implements Iterator<T> {
+		private final Deque<Iterator<T>> stack = new ArrayDeque<Iterator<T>>();
+		
+		private T next;
+		
+		/**
+		 * The element last returned. Its children are read when the iterator next moves.
+		 */
+		private T last;
+		
+		PreOrder(T start) {
+			next = start;
+		}
+		
+		public boolean hasNext() {
+			if (last != null) {
+				stack.push(last.children().iterator());
+				last = null;
+			}
+			while (next == null && !stack.isEmpty()) {
+				Iterator<T> top = stack.peek();
+				if (top.hasNext()) {
+					next = top.next();
+				} else {
+					stack.pop();
+				}
+			}
+			return next != null;
+		}
+		
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			last = next;
+			next = null;
+			return last;
+		}
+	}
+	
+	private static final class PostOrder<T extends Tree<T, ?>> implements Iterator<T> {
+		private final Deque<Frame<T>> stack = new ArrayDeque<Frame<T>>();
+		
+		PostOrder(T start) {
+			stack.push(new Frame<T>(start));
+		}
+		
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+		
+		public T next() {
+			if (stack.isEmpty()) throw new NoSuchElementException();
+			while (true) {
+				Frame<T> top = stack.peek();
+				if (top.children.hasNext()) {
+					stack.push(new Frame<T>(top.children.next()));
+				} else {
+					stack.pop();
+					return top.element;
+				}
+			}
+		}
+	}
+	
+	private static final class Frame<T extends Tree<T, ?>> {
+		final T element;
+		final Iterator<T> children;
+		
+		Frame(T element) {
+			this.element = element;
+			children = element.children().iterator();
+		}
+	}
+	
+	/**
+	 * Splits a tree by handing out whole subtrees. A single subtree is split by taking its root
+	 * on its own and dividing up its children, so the encounter order is always pre-order.
+	 */
+	private static final class TreeSpliterator<T extends Tree<T, ?>> implements Spliterator<T> {
+		/**
+		 * Subtrees still to be traversed, in order.
+		 */
+		private final Deque<Pending<T>> pending;
+		
+		private long estimate;
+		
+		TreeSpliterator(T start) {
+			pending = new ArrayDeque<Pending<T>>();
+			pending.add(new Pending<T>(start, false));
+			estimate = start.size();
+		}
+		
+		private TreeSpliterator(Deque<Pending<T>> pending, long estimate) {
+			this.pending = pending;
+			this.estimate = estimate;
+		}
+		
+		public boolean tryAdvance(Consumer<? super T> action) {
+			Pending<T> next = pending.pollFirst();
+			if (next == null) return false;
+			action.accept(next.element);
+			if (!next.alone) {
+				for (int i = next.element.children().size() - 1; i >= 0; i--) {
+					pending.addFirst(new Pending<T>(next.element.children().get(i), false));
+				}
+			}
+			if (estimate > 0) estimate--;
+			return true;
+		}
+		
+		public void forEachRemaining(Consumer<? super T> action) {
+			Pending<T> next;
+			while ((next = pending.pollFirst()) != null) {
+				if (next.alone) {
+					action.accept(next.element);
+				} else {
+					for (T i : preOrder(next.element)) {
+						action.accept(i);
+					}
+				}
+			}
+			estimate = 0;
+		}
+		
+		public Spliterator<T> trySplit() {
+			if (pending.size() == 1) {
+				Pending<T> only = pending.peekFirst();
+				if (only.alone || only.element.children().isEmpty()) return null;
+				pending.clear();
+				pending.add(new Pending<T>(only.element, true));
+				for (T i : only.element.children()) {
+					pending.add(new Pending<T>(i, false));
+				}
+			}
+			if (pending.size() < 2) return null;
+			Deque<Pending<T>> prefix = new ArrayDeque<Pending<T>>();
+			for (int i = pending.size() / 2; i > 0; i--) {
+				prefix.add(pending.pollFirst());
+			}
+			long half = estimate / 2;
+			estimate -= half;
+			return new TreeSpliterator<T>(prefix, half);
+		}
+		
+		public long estimateSize() {
+			return estimate;
+		}
+		
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+	
+	private static final class Pending<T> {
+		final T element;
+		
+		/**
+		 * True if the element's children have been handed out separately.
+		 */
+		final boolean alone;
+		
+		Pending(T element, boolean alone) {
+			this.element = element;
+			this.alone = alone;
+		}
+	}
+}
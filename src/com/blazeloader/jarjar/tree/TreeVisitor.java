@@ -0,0 +1,15 @@
+package com.blazeloader.jarjar.tree;
+
+/**
+ * Visits the elements of a {@link Tree}, parents before their children.
+ */
+public interface TreeVisitor<T extends Tree<T, ?>> {
+	
+	/**
+	 * Visits a single element.
+	 * @param element	The element being visited
+	 * @param depth		Distance of the element from the one the visit started at
+	 * @return True to go on to visit the element's children
+	 */
+	public boolean visit(T element, int depth);
+}
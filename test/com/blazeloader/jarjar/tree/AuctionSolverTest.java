@@ -0,0 +1,75 @@
+package com.blazeloader.jarjar.tree;
+
+import static com.blazeloader.jarjar.tree.AssignmentSolver.FORBIDDEN;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AuctionSolverTest {
+	
+	/**
+	 * The first row can only take the first column, which the other rows score higher. The third column is
+	 * forbidden to every row, so one of them is left unassigned rather than given it.
+	 */
+	@Test(timeout = 1000)
+	public void singleAllowedColumn() {
+		double[] scores = {
+			0.5, FORBIDDEN, FORBIDDEN,
+			0.9, 0.8, FORBIDDEN,
+			0.9, 0.7, FORBIDDEN
+		};
+		int[] result = new AuctionSolver(0.01).auction(scores, 3, 3);
+		assertArrayEquals(new int[] {-1, 1, 0}, result);
+	}
+	
+	/**
+	 * Three rows for two allowed columns. Bids must stay on the scale of the scores, or the rows outbid each
+	 * other up to the forbidden score a step at a time.
+	 */
+	@Test(timeout = 1000)
+	public void fewerAllowedColumnsThanRows() {
+		double[] scores = {
+			FORBIDDEN, 0.3, 0.1,
+			FORBIDDEN, 0.0, 0.1,
+			FORBIDDEN, 0.9, 0.9
+		};
+		int[] result = new AuctionSolver(0.01).auction(scores, 3, 3);
+		assertArrayEquals(new int[] {1, -1, 2}, result);
+	}
+	
+	/**
+	 * Two rows whose only allowed column is the same one. One of them gets it and the other is left unassigned.
+	 */
+	@Test(timeout = 1000)
+	public void sharedAllowedColumn() {
+		double[] scores = {
+			0.5, FORBIDDEN,
+			0.6, FORBIDDEN
+		};
+		int[] result = new AuctionSolver(0.01).auction(scores, 2, 2);
+		assertArrayEquals(new int[] {-1, 0}, result);
+	}
+	
+	@Test(timeout = 1000)
+	public void noAllowedColumn() {
+		double[] scores = {
+			FORBIDDEN, FORBIDDEN,
+			0.4, 0.2
+		};
+		int[] result = new AuctionSolver(0.01).auction(scores, 2, 2);
+		assertEquals(-1, result[0]);
+		assertEquals(0, result[1]);
+	}
+	
+	@Test(timeout = 1000)
+	public void moreRowsThanColumns() {
+		double[] scores = {
+			0.2, 0.9,
+			0.8, FORBIDDEN,
+			0.3, 0.4
+		};
+		int[] result = new AuctionSolver(0.01).auction(scores, 3, 2);
+		assertArrayEquals(new int[] {1, 0, -1}, result);
+	}
+}